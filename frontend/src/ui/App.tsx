@@ -4,7 +4,6 @@ import './styles.css'
 
 export type Todo = {
   id: string
-  userId: string
   title: string
   description?: string
   statusCode: number
@@ -14,7 +13,8 @@ export type Todo = {
   categoryId?: string
 }
 
-interface PageCursor { createdAt?: string; id?: string }
+// 服务端在响应头 X-Next-Cursor 中返回下一页的不透明游标
+interface PageCursor { token?: string }
 
 export default function App() {
   const { token, userId, ensureAuthModal, logout, LoginModal } = useAuth()
@@ -55,7 +55,7 @@ export default function App() {
 
   const authHeaders = () => ({ 'Authorization': token ? `Bearer ${token}` : '', 'X-User-ID': userId || '' })
 
-  const fetchJson = useCallback(async (url: string, init?: RequestInit, autoLoginOn403: boolean = false) => {
+  const fetchJson = useCallback(async (url: string, init?: RequestInit, autoLoginOn403: boolean = false, onHeaders?: (h: Headers) => void) => {
     // 规范化 headers 为普通对象
     const base: Record<string,string> = {}
     if (init?.headers instanceof Headers) {
@@ -72,6 +72,7 @@ export default function App() {
       throw new Error('需要登录')
     }
     if (!res.ok) throw new Error(await res.text())
+    onHeaders?.(res.headers)
     const ct = res.headers.get('content-type')
     if (ct && ct.includes('application/json')) return res.json()
     return res.text()
@@ -97,13 +98,13 @@ export default function App() {
     try {
       const params = new URLSearchParams()
       params.set('size', String(size.current))
-      if (cursor.current.createdAt) params.set('cursorCreatedAt', cursor.current.createdAt)
-      if (cursor.current.id) params.set('cursorId', cursor.current.id)
+      if (cursor.current.token) params.set('cursor', cursor.current.token)
       params.set('sort', sortField)
       params.set('order', sortOrder)
       if (selectedPriorityLevel) params.set('priorityLevelId', selectedPriorityLevel)
       if (selectedTags.length) params.set('tags', selectedTags.join(','))
-      const data: Todo[] = await fetchJson(`/api/todos?${params.toString()}`)
+      let nextCursor: string | null = null
+      const data: Todo[] = await fetchJson(`/api/todos?${params.toString()}`, undefined, false, h => { nextCursor = h.get('X-Next-Cursor') })
       // 去重合并：避免在开发模式（React StrictMode）或偶发重复请求时列表重复展示
       setTodos(prev => {
         if (prev.length === 0) return data
@@ -111,9 +112,8 @@ export default function App() {
         const toAdd = data.filter(t => !exists.has(t.id))
         return [...prev, ...toAdd]
       })
-      if (data.length > 0) {
-        const last = data[data.length - 1]
-        cursor.current = { createdAt: last.createdAt, id: last.id }
+      if (nextCursor) {
+        cursor.current = { token: nextCursor }
         setHasMore(true)
       } else {
         setHasMore(false)
@@ -5,12 +5,14 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpServletRequestWrapper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -26,7 +28,13 @@ import java.util.Collections;
 public class SecurityConfig {
 
     private final TokenService tokenService;
-    public SecurityConfig(TokenService tokenService) { this.tokenService = tokenService; }
+    // 可访问 /api/admin/** 的用户（逗号分隔）；为空时运维接口对所有人返回 403
+    private final Set<String> adminUsers;
+    public SecurityConfig(TokenService tokenService, @Value("${tdl.admin.users:}") String adminUsers) {
+        this.tokenService = tokenService;
+        this.adminUsers = new HashSet<>();
+        for (String u : adminUsers.split(",")) if (!u.isBlank()) this.adminUsers.add(u.trim());
+    }
 
     @Bean
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
@@ -52,15 +60,20 @@ public class SecurityConfig {
             .requestMatchers(HttpMethod.OPTIONS, "/**").permitAll()
             // 公共只读查询接口
             .requestMatchers(HttpMethod.GET, "/api/todos", "/api/todos/search").permitAll()
+            // 健康检查 / 就绪探针
+            .requestMatchers(HttpMethod.GET, "/api/health/**").permitAll()
+            // 运维接口（重建索引、回填、对账等）仅限管理员
+            .requestMatchers("/api/admin/**").hasRole("ADMIN")
             .anyRequest().authenticated()
         )
-        .addFilterBefore(new JwtFilter(tokenService), UsernamePasswordAuthenticationFilter.class);
+        .addFilterBefore(new JwtFilter(tokenService, adminUsers), UsernamePasswordAuthenticationFilter.class);
         return http.build();
     }
 
     static class JwtFilter extends OncePerRequestFilter {
         private final TokenService tokenService;
-        JwtFilter(TokenService tokenService){this.tokenService = tokenService;}
+        private final Set<String> adminUsers;
+        JwtFilter(TokenService tokenService, Set<String> adminUsers){this.tokenService = tokenService; this.adminUsers = adminUsers;}
         @Override
         protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
             String auth = request.getHeader("Authorization");
@@ -68,7 +81,10 @@ public class SecurityConfig {
                 String token = auth.substring(7);
                 String userId = tokenService.validate(token);
                 if (userId != null) {
-                    UserDetails ud = User.withUsername(userId).password("NOP").authorities(Collections.emptyList()).build();
+                    var authorities = adminUsers.contains(userId)
+                            ? List.of(new SimpleGrantedAuthority("ROLE_ADMIN"))
+                            : Collections.<SimpleGrantedAuthority>emptyList();
+                    UserDetails ud = User.withUsername(userId).password("NOP").authorities(authorities).build();
                     var authToken = new UsernamePasswordAuthenticationToken(ud, token, ud.getAuthorities());
                     SecurityContextHolder.getContext().setAuthentication(authToken);
                     // propagate user id as header for existing service logic if header missing
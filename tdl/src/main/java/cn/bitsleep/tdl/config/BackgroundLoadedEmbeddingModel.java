@@ -0,0 +1,66 @@
+package cn.bitsleep.tdl.config;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 在后台线程加载 ONNX 模型（读取模型文件 + 创建推理 session 需数秒），Spring 上下文不必等待；
+ * 模型就绪前的调用会阻塞到加载完成。dimension() 使用配置值，不触发等待。
+ */
+@Slf4j
+public class BackgroundLoadedEmbeddingModel implements EmbeddingModel {
+
+    private final CompletableFuture<EmbeddingModel> delegate = new CompletableFuture<>();
+    private final int dimension;
+    private volatile long loadMillis = -1;
+
+    public BackgroundLoadedEmbeddingModel(Supplier<EmbeddingModel> loader, int dimension) {
+        this.dimension = dimension;
+        Thread t = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                EmbeddingModel model = loader.get();
+                loadMillis = (System.nanoTime() - start) / 1_000_000;
+                log.info("Embedding model loaded in {} ms", loadMillis);
+                delegate.complete(model);
+            } catch (Throwable e) {
+                log.error("Embedding model failed to load", e);
+                delegate.completeExceptionally(e);
+            }
+        }, "embed-model-loader");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        return delegate.join().embedAll(textSegments);
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    public boolean isLoaded() {
+        return delegate.isDone() && !delegate.isCompletedExceptionally();
+    }
+
+    /** 等待模型加载完成；超时或加载失败时抛出异常 */
+    public void awaitLoaded(long timeoutMs) throws Exception {
+        delegate.get(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** 加载耗时，未完成时为 -1 */
+    public long loadMillis() {
+        return loadMillis;
+    }
+}
@@ -0,0 +1,40 @@
+package cn.bitsleep.tdl.config;
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.OnnxEmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.PoolingMode;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2q.AllMiniLmL6V2QuantizedEmbeddingModel;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * 嵌入模型变体：
+ * fp32 - 内置 all-MiniLM-L6-v2（默认）；
+ * int8 - 内置同一模型的 int8 量化版本（更快、更省内存，向量与 fp32 近似但不完全相同）；
+ * file - 从本地路径加载 ONNX 模型与 tokenizer（如自行导出的量化模型），均值池化。
+ */
+public final class EmbeddingModels {
+
+    public static final String FP32 = "fp32";
+    public static final String INT8 = "int8";
+    public static final String FILE = "file";
+
+    private EmbeddingModels() {
+    }
+
+    public static EmbeddingModel create(String variant, String modelPath, String tokenizerPath, Executor executor) {
+        return switch (variant.toLowerCase(Locale.ROOT)) {
+            case FP32 -> new AllMiniLmL6V2EmbeddingModel(executor);
+            case INT8 -> new AllMiniLmL6V2QuantizedEmbeddingModel(executor);
+            case FILE -> {
+                if (modelPath == null || modelPath.isBlank() || tokenizerPath == null || tokenizerPath.isBlank()) {
+                    throw new IllegalArgumentException("tdl.embedding.model=file requires tdl.embedding.model-path and tdl.embedding.tokenizer-path");
+                }
+                yield new OnnxEmbeddingModel(modelPath, tokenizerPath, PoolingMode.MEAN, executor);
+            }
+            default -> throw new IllegalArgumentException("Unknown tdl.embedding.model: " + variant + " (expected fp32, int8 or file)");
+        };
+    }
+}
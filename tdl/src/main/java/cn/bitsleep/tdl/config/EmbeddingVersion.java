@@ -0,0 +1,41 @@
+package cn.bitsleep.tdl.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * 向量版本 = 模型标识 + 嵌入文本格式版本，写入 todo_item.embedding_model_version。
+ * 模型或 {@link #buildText} 的格式变化后，旧版本的向量视为过期：检索默认不使用，由回填任务重新计算。
+ */
+@Component
+public class EmbeddingVersion {
+
+    // buildText 的拼接格式变化时递增
+    public static final int TEXT_FORMAT = 1;
+
+    @Value("${tdl.embedding.model:fp32}")
+    private String variant;
+
+    @Value("${tdl.embedding.model-path:}")
+    private String modelPath;
+
+    public static String buildText(String title, String description) {
+        return (title == null ? "" : title) + "\n" + (description == null ? "" : description);
+    }
+
+    /** 如 all-minilm-l6-v2@t1 */
+    public String current() {
+        return modelId() + "@t" + TEXT_FORMAT;
+    }
+
+    private String modelId() {
+        return switch (variant.toLowerCase(Locale.ROOT)) {
+            case EmbeddingModels.INT8 -> "all-minilm-l6-v2-q";
+            case EmbeddingModels.FILE -> "file:" + Path.of(modelPath).getFileName();
+            default -> "all-minilm-l6-v2";
+        };
+    }
+}
@@ -0,0 +1,151 @@
+package cn.bitsleep.tdl.config;
+
+import cn.bitsleep.tdl.domain.TodoStatus;
+import cn.bitsleep.tdl.service.TodoService;
+import dev.langchain4j.data.segment.TextSegment;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 启动预热：打开数据库 / Redis 连接、等待模型加载、用合成请求跑若干轮 embed / search / list 让热点代码完成 JIT。
+ * ApplicationRunner 在 ApplicationReadyEvent 之前执行，Spring Boot 在它返回后才把 readiness 切到 ACCEPTING_TRAFFIC，
+ * 因此 /api/health/ready 在预热完成前返回 503。预热失败只记录日志，不阻止启动。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StartupWarmUp implements ApplicationRunner {
+
+    private final DataSource dataSource;
+    private final RedissonClient redissonClient;
+    private final BackgroundLoadedEmbeddingModel embeddingModel;
+    private final TodoService todoService;
+
+    @Value("${tdl.warmup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${tdl.warmup.iterations:20}")
+    private int iterations;
+
+    @Value("${tdl.warmup.db-connections:10}")
+    private int dbConnections;
+
+    @Value("${tdl.warmup.redis-connections:8}")
+    private int redisConnections;
+
+    @Value("${tdl.warmup.model-timeout-ms:120000}")
+    private long modelTimeoutMs;
+
+    // 合成请求使用的用户：没有任何数据，查询走完整代码路径但不返回行
+    private static final String WARMUP_USER = "__warmup__";
+    private static final List<String> SAMPLE_TEXTS = List.of(
+            "buy groceries and milk", "prepare quarterly report", "fix login bug", "book dentist appointment",
+            "周末整理房间", "准备下周的会议材料", "renew passport", "call mom");
+
+    private volatile Map<String, Object> report = Map.of("status", "pending");
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            report = Map.of("status", "disabled");
+            return;
+        }
+        long start = System.nanoTime();
+        Map<String, Object> steps = new LinkedHashMap<>();
+        step(steps, "database", this::warmDatabase);
+        step(steps, "redis", this::warmRedis);
+        step(steps, "model", this::warmModel);
+        step(steps, "search", this::warmSearch);
+        step(steps, "list", this::warmList);
+
+        long totalMs = (System.nanoTime() - start) / 1_000_000;
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "done");
+        out.put("totalMs", totalMs);
+        out.put("modelLoadMs", embeddingModel.loadMillis());
+        out.put("steps", steps);
+        report = out;
+        log.info("Warm-up finished in {} ms: {}", totalMs, steps);
+    }
+
+    public Map<String, Object> report() {
+        return report;
+    }
+
+    private void step(Map<String, Object> steps, String name, WarmUpStep step) {
+        long start = System.nanoTime();
+        try {
+            step.run();
+            steps.put(name + "Ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            log.warn("Warm-up step {} failed", name, e);
+            steps.put(name + "Ms", "failed: " + e.getMessage());
+        }
+    }
+
+    // 同时借出 N 个连接，迫使 Hikari 立即建立它们（而不是由后台线程逐个补足）
+    private void warmDatabase() throws Exception {
+        List<Connection> held = new ArrayList<>();
+        try {
+            for (int i = 0; i < dbConnections; i++) {
+                Connection con = dataSource.getConnection();
+                held.add(con);
+                try (Statement st = con.createStatement()) {
+                    st.execute("SELECT 1");
+                }
+            }
+        } finally {
+            for (Connection con : held) con.close();
+        }
+    }
+
+    private void warmRedis() {
+        List<CompletableFuture<?>> pings = new ArrayList<>();
+        for (int i = 0; i < redisConnections; i++) {
+            pings.add(redissonClient.getBucket("tdl:warmup").isExistsAsync().toCompletableFuture());
+        }
+        CompletableFuture.allOf(pings.toArray(CompletableFuture[]::new)).join();
+    }
+
+    private void warmModel() throws Exception {
+        embeddingModel.awaitLoaded(modelTimeoutMs);
+        List<TextSegment> batch = SAMPLE_TEXTS.stream().map(TextSegment::from).toList();
+        for (int i = 0; i < iterations; i++) {
+            embeddingModel.embedAll(batch);
+        }
+    }
+
+    private void warmSearch() {
+        for (int i = 0; i < iterations; i++) {
+            todoService.hybridSearch(WARMUP_USER, SAMPLE_TEXTS.get(i % SAMPLE_TEXTS.size()), 20);
+        }
+    }
+
+    private void warmList() {
+        List<TodoStatus> statuses = List.of(TodoStatus.ACTIVE, TodoStatus.COMPLETED);
+        for (int i = 0; i < iterations; i++) {
+            todoService.list(WARMUP_USER, statuses, null, 20, null, "desc", null, null, null, false);
+            todoService.list(WARMUP_USER, statuses, null, 20, "priority", "desc", null, null, null, false);
+            todoService.list(WARMUP_USER, statuses, null, 20, null, "desc", null, null, List.of("__warmup__"), true);
+        }
+    }
+
+    @FunctionalInterface
+    private interface WarmUpStep {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,10 @@
+package cn.bitsleep.tdl.dto;
+
+import java.util.List;
+
+/**
+ * 增量同步的一批变更：changed 为新增或修改后的条目（含状态变化，如进入回收站），
+ * deleted 为已彻底删除的 id；next 为下次请求的 since，hasMore 为 true 时应立即继续拉取。
+ */
+public record TodoChanges(List<TodoView> changed, List<String> deleted, String next, boolean hasMore) {
+}
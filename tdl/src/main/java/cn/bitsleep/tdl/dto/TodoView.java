@@ -0,0 +1,26 @@
+package cn.bitsleep.tdl.dto;
+
+import cn.bitsleep.tdl.domain.TodoStatus;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * 列表 / 检索 / 创建接口返回的待办视图：不含 user_id、向量文本（text）与 metadata 等内部列。
+ */
+public record TodoView(
+        String id,
+        String title,
+        String description,
+        BigDecimal priorityScore,
+        String priorityLabel,
+        String categoryId,
+        String priorityLevelId,
+        Integer statusCode,
+        TodoStatus status,
+        Instant trashPurgeAt,
+        Instant createdAt,
+        Instant updatedAt,
+        Long version
+) {
+}
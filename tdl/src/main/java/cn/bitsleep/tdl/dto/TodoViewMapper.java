@@ -0,0 +1,14 @@
+package cn.bitsleep.tdl.dto;
+
+import cn.bitsleep.tdl.domain.TodoItem;
+import org.mapstruct.Mapper;
+
+import java.util.List;
+
+@Mapper(componentModel = "spring")
+public interface TodoViewMapper {
+
+    TodoView toView(TodoItem item);
+
+    List<TodoView> toViews(List<TodoItem> items);
+}
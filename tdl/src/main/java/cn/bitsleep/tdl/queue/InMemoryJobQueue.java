@@ -0,0 +1,174 @@
+package cn.bitsleep.tdl.queue;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内任务队列（tdl.queue.backend=memory，单节点部署）：每个主题一个有界环形缓冲，入队无网络往返。
+ * 语义与 {@link StreamJobQueue} 一致（合并入队、ack、空闲超时重投、死信），但不跨进程持久化：
+ * 缓冲满时整批拒绝，任务留在 job_outbox 中（即持久化溢出区）；进程重启时丢失的已转发任务
+ * 由启动时的恢复扫描（EmbeddingRecovery）按向量状态重新入队。
+ */
+@Component
+@ConditionalOnProperty(name = "tdl.queue.backend", havingValue = "memory")
+@Slf4j
+public class InMemoryJobQueue implements JobQueue {
+
+    @Value("${tdl.queue.memory.capacity:10000}")
+    private int capacity;
+
+    @Value("${tdl.queue.claim-idle-ms:60000}")
+    private long claimIdleMs;
+
+    @Value("${tdl.queue.max-deliveries:5}")
+    private int maxDeliveries;
+
+    @Value("${tdl.queue.dead-letter-max-len:10000}")
+    private int deadLetterMaxLen;
+
+    private final Map<Topic, TopicState> topics = new EnumMap<>(Topic.class);
+    private final AtomicLong sequence = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        for (Topic topic : Topic.values()) topics.put(topic, new TopicState(capacity));
+        log.info("Using in-memory job queue (capacity {} per topic)", capacity);
+    }
+
+    @Override
+    public void enqueueAll(Topic topic, List<String> jobs) {
+        if (jobs.isEmpty()) return;
+        TopicState state = topics.get(topic);
+        synchronized (state) {
+            // 合并：已在缓冲中等待的、以及同一批内重复的任务只保留一份
+            List<String> fresh = new ArrayList<>(jobs.size());
+            Set<String> seen = new HashSet<>();
+            for (String job : jobs) {
+                if (!state.waiting.contains(job) && seen.add(job)) fresh.add(job);
+            }
+            if (state.buffer.remainingCapacity() < fresh.size()) {
+                throw new QueueFullException("In-memory " + topic + " queue is full (" + capacity + ")");
+            }
+            for (String job : fresh) {
+                state.waiting.add(job);
+                state.buffer.add(job);
+            }
+            state.counters.enqueued.addAndGet(fresh.size());
+        }
+    }
+
+    @Override
+    public List<Job> read(Topic topic, int max, long blockMs) throws InterruptedException {
+        TopicState state = topics.get(topic);
+        String first = blockMs > 0 ? state.buffer.poll(blockMs, TimeUnit.MILLISECONDS) : state.buffer.poll();
+        if (first == null) return List.of();
+        List<String> payloads = new ArrayList<>(max);
+        payloads.add(first);
+        state.buffer.drainTo(payloads, max - 1);
+
+        List<Job> jobs = new ArrayList<>(payloads.size());
+        long now = System.nanoTime();
+        for (String payload : payloads) {
+            // 读到即移出合并集合：处理期间的新编辑会重新入队
+            state.waiting.remove(payload);
+            Job job = new Job(Long.toString(sequence.incrementAndGet()), payload, 1);
+            state.inFlight.put(job.id(), new InFlight(job, now));
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    @Override
+    public void ack(Topic topic, List<Job> jobs) {
+        TopicState state = topics.get(topic);
+        for (Job job : jobs) {
+            if (state.inFlight.remove(job.id()) != null) state.counters.acked.incrementAndGet();
+        }
+    }
+
+    @Override
+    public List<Job> reclaim(Topic topic, int max) {
+        TopicState state = topics.get(topic);
+        long idleBefore = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(claimIdleMs);
+        List<Job> retry = new ArrayList<>();
+        for (InFlight entry : state.inFlight.values()) {
+            if (retry.size() >= max) break;
+            if (entry.readAt() > idleBefore) continue;
+            Job job = entry.job();
+            if (job.deliveries() >= maxDeliveries) {
+                if (state.inFlight.remove(job.id(), entry)) deadLetter(topic, state, job);
+                continue;
+            }
+            Job again = new Job(job.id(), job.payload(), job.deliveries() + 1);
+            // replace 保证并发认领时只有一个调用方拿到
+            if (state.inFlight.replace(job.id(), entry, new InFlight(again, System.nanoTime()))) retry.add(again);
+        }
+        state.counters.reclaimed.addAndGet(retry.size());
+        if (!retry.isEmpty()) log.info("Reclaimed {} pending {} jobs for retry", retry.size(), topic);
+        return retry;
+    }
+
+    @Override
+    public long backlog(Topic topic) {
+        TopicState state = topics.get(topic);
+        return state.buffer.size() + state.inFlight.size();
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("backend", "memory");
+        out.put("capacity", capacity);
+        topics.forEach((topic, state) -> {
+            Map<String, Object> t = new LinkedHashMap<>();
+            t.put("queued", state.buffer.size());
+            t.put("pending", state.inFlight.size());
+            synchronized (state.dead) {
+                t.put("deadLetters", state.dead.size());
+            }
+            state.counters.putInto(t);
+            out.put(topic.name().toLowerCase(), t);
+        });
+        return out;
+    }
+
+    private void deadLetter(Topic topic, TopicState state, Job job) {
+        synchronized (state.dead) {
+            if (state.dead.size() >= deadLetterMaxLen) state.dead.removeFirst();
+            state.dead.addLast(job);
+        }
+        state.counters.deadLettered.incrementAndGet();
+        log.warn("Dropped {} job {} to dead letters after {} deliveries", topic, job.payload(), job.deliveries());
+    }
+
+    private record InFlight(Job job, long readAt) {}
+
+    private static class TopicState {
+        final ArrayBlockingQueue<String> buffer;
+        final Set<String> waiting = ConcurrentHashMap.newKeySet();
+        final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+        final Deque<Job> dead = new ArrayDeque<>();
+        final JobCounters counters = new JobCounters();
+
+        TopicState(int capacity) {
+            buffer = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package cn.bitsleep.tdl.queue;
+
+/**
+ * 队列中的一条任务；id 由后端分配（Redis 为 stream 消息 id），deliveries 为本次是第几次投递。
+ */
+public record Job(String id, String payload, long deliveries) {}
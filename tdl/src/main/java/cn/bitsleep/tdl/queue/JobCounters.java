@@ -0,0 +1,20 @@
+package cn.bitsleep.tdl.queue;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 各队列后端共用的本节点计数
+class JobCounters {
+    final AtomicLong enqueued = new AtomicLong();
+    final AtomicLong acked = new AtomicLong();
+    final AtomicLong reclaimed = new AtomicLong();
+    final AtomicLong deadLettered = new AtomicLong();
+
+    void putInto(Map<String, Object> out) {
+        out.put("enqueued", enqueued.get());
+        out.put("acked", acked.get());
+        out.put("reclaimed", reclaimed.get());
+        out.put("deadLettered", deadLettered.get());
+    }
+
+}
@@ -0,0 +1,167 @@
+package cn.bitsleep.tdl.queue;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 事务性发件箱：任务与业务数据在同一事务中写入 job_outbox，请求路径上不访问 Redis；
+ * 提交后唤醒本节点的转发线程，按批写入 {@link JobQueue}（Redis 为一个 pipeline）后删除对应行。
+ * 转发在数据库事务中进行（FOR UPDATE SKIP LOCKED），多节点各取不同的行；
+ * 写入 Redis 成功但删除未提交时会重复投递，由消费端幂等处理（嵌入按内容哈希跳过）。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class JobOutbox implements SmartLifecycle {
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final JobQueue jobQueue;
+
+    @Value("${tdl.outbox.batch-size:200}")
+    private int batchSize;
+
+    // 兜底扫描间隔：其他节点崩溃前未转发的行、以及 Redis 故障后的重试
+    @Value("${tdl.outbox.sweep-interval-ms:2000}")
+    private long sweepIntervalMs;
+
+    private static final String INSERT = "INSERT INTO job_outbox (topic, payload) VALUES (?, ?)";
+    private static final String CLAIM = """
+            SELECT id, topic, payload FROM job_outbox
+            ORDER BY id
+            LIMIT ?
+            FOR UPDATE SKIP LOCKED
+            """;
+    private static final String DELETE = "DELETE FROM job_outbox WHERE id = ANY(?)";
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    private final Semaphore wakeup = new Semaphore(0);
+    private final AtomicLong relayed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile boolean running;
+    private Thread relay;
+
+    /** 在当前事务中写入一条任务；事务提交后才会被转发（无事务时立即唤醒） */
+    public void add(Topic topic, String payload) {
+        jdbc.update(INSERT, topic.name(), payload);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    wake();
+                }
+            });
+        } else {
+            wake();
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        relay = new Thread(this::relayLoop, "outbox-relay");
+        relay.setDaemon(true);
+        relay.start();
+    }
+
+    @Override
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            t = relay;
+        }
+        wakeup.release();
+        try {
+            t.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("backlog", jdbc.queryForObject("SELECT count(*) FROM job_outbox", Long.class));
+        out.put("relayed", relayed.get());
+        out.put("batches", batches.get());
+        out.put("failures", failures.get());
+        return out;
+    }
+
+    private void wake() {
+        // 只需一个待处理信号：转发线程每次醒来都会清空积压
+        if (wakeup.availablePermits() == 0) wakeup.release();
+    }
+
+    private void relayLoop() {
+        long backoffMs = 0;
+        while (running) {
+            try {
+                wakeup.tryAcquire(backoffMs > 0 ? backoffMs : sweepIntervalMs, TimeUnit.MILLISECONDS);
+                wakeup.drainPermits();
+                if (!running) break;
+                while (running && relayBatch() == batchSize) {
+                    // 满批说明还有积压，继续
+                }
+                backoffMs = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (QueueFullException e) {
+                // 进程内队列已满：任务留在表中，等消费端追上
+                backoffMs = Math.min(MAX_BACKOFF_MS, Math.max(500, backoffMs * 2));
+                log.debug("Outbox relay paused for {} ms: {}", backoffMs, e.getMessage());
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                backoffMs = Math.min(MAX_BACKOFF_MS, Math.max(500, backoffMs * 2));
+                log.warn("Outbox relay failed, retrying in {} ms", backoffMs, e);
+            }
+        }
+    }
+
+    private int relayBatch() {
+        Integer n = tx.execute(status -> {
+            List<Long> ids = new ArrayList<>();
+            Map<Topic, List<String>> byTopic = new EnumMap<>(Topic.class);
+            jdbc.query(CLAIM, rs -> {
+                ids.add(rs.getLong("id"));
+                byTopic.computeIfAbsent(Topic.valueOf(rs.getString("topic")), k -> new ArrayList<>())
+                        .add(rs.getString("payload"));
+            }, batchSize);
+            if (ids.isEmpty()) return 0;
+            byTopic.forEach(jobQueue::enqueueAll);
+            jdbc.update(DELETE, ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids.toArray())));
+            return ids.size();
+        });
+        int relayedNow = n == null ? 0 : n;
+        if (relayedNow > 0) {
+            relayed.addAndGet(relayedNow);
+            batches.incrementAndGet();
+        }
+        return relayedNow;
+    }
+}
@@ -0,0 +1,28 @@
+package cn.bitsleep.tdl.queue;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 任务队列抽象（至少一次投递）：读取后的任务在 ack 之前处于处理中状态，
+ * 未确认且空闲过久的由 {@link #reclaim} 重新投递，超过投递上限的进入死信。
+ * 后端由 tdl.queue.backend 选择：redis（{@link StreamJobQueue}，多节点）或 memory（{@link InMemoryJobQueue}，单节点）。
+ */
+public interface JobQueue {
+
+    /** 批量入队；嵌入任务按内容合并（等待中的同一任务只保留一份） */
+    void enqueueAll(Topic topic, List<String> jobs);
+
+    /** 读取新任务；blockMs > 0 时无任务则阻塞等待，有任务写入立即返回 */
+    List<Job> read(Topic topic, int max, long blockMs) throws InterruptedException;
+
+    void ack(Topic topic, List<Job> jobs);
+
+    /** 取回空闲超时的未确认任务交给调用方重试；超过投递上限的转入死信 */
+    List<Job> reclaim(Topic topic, int max);
+
+    /** 未完成的任务数（等待中 + 处理中） */
+    long backlog(Topic topic);
+
+    Map<String, Object> stats();
+}
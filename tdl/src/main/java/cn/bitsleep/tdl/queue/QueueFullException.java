@@ -0,0 +1,11 @@
+package cn.bitsleep.tdl.queue;
+
+/**
+ * 有界队列已满：整批拒绝，任务留在发件箱中稍后重试。
+ */
+public class QueueFullException extends RuntimeException {
+
+    public QueueFullException(String message) {
+        super(message);
+    }
+}
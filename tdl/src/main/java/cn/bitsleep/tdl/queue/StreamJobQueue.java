@@ -0,0 +1,392 @@
+package cn.bitsleep.tdl.queue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.PendingEntry;
+import org.redisson.api.RBatch;
+import org.redisson.api.RQueue;
+import org.redisson.api.RScript;
+import org.redisson.api.RStream;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.StreamMessageId;
+import org.redisson.api.stream.StreamAddArgs;
+import org.redisson.api.stream.StreamCreateGroupArgs;
+import org.redisson.api.stream.StreamReadArgs;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.Codec;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 Redis Stream + 消费组的任务队列（tdl.queue.backend=redis，默认）：
+ * 读取（XREADGROUP）后消息进入消费者的 pending 列表，处理成功才 XACK + XDEL；
+ * 处理失败或节点宕机时消息留在 pending 中，空闲超过 claim-idle-ms 后由任一节点认领（XCLAIM）重试；
+ * 投递次数达到 max-deliveries 仍未成功的消息转入死信流 {@code <stream>:dead}。
+ * 语义为至少一次，任务处理需幂等（嵌入按内容哈希跳过）。
+ */
+@Component
+@ConditionalOnProperty(name = "tdl.queue.backend", havingValue = "redis", matchIfMissing = true)
+@RequiredArgsConstructor
+@Slf4j
+public class StreamJobQueue implements JobQueue {
+
+    private final RedissonClient redissonClient;
+
+    @Value("${tdl.queue.consumer-group:tdl-workers}")
+    private String group;
+
+    @Value("${tdl.queue.claim-idle-ms:60000}")
+    private long claimIdleMs;
+
+    @Value("${tdl.queue.max-deliveries:5}")
+    private int maxDeliveries;
+
+    @Value("${tdl.queue.dead-letter-max-len:10000}")
+    private int deadLetterMaxLen;
+
+    // 合并入队用的 pending 集合：同一 job 在流中等待期间只保留一份，被读取时移出
+    private static final String EMBED_PENDING = "tdl:todo:embed:stream:pending";
+    // 旧版 RQueue 的 key（节点启动时一次性迁移到流中）
+    private static final String LEGACY_EMBED_QUEUE = "tdl:todo:embed";
+    private static final String LEGACY_EMBED_PENDING = "tdl:todo:embed:pending";
+    private static final String FIELD = "job";
+
+    private static final String ENQUEUE_COALESCED = """
+            if redis.call('sadd', KEYS[1], ARGV[1]) == 1 then
+              redis.call('xadd', KEYS[2], '*', 'job', ARGV[1])
+              return 1
+            end
+            return 0
+            """;
+
+    // 旧队列队头仍是 ARGV[1]（默认 codec 编码）时弹出，并以明文 ARGV[2] 写入流（ARGV[3] = 1 时按合并集合去重）；
+    // 队头已被其他节点取走时返回 -1，不写入
+    private static final String MOVE_LEGACY_HEAD = """
+            if redis.call('lindex', KEYS[1], 0) ~= ARGV[1] then return -1 end
+            redis.call('lpop', KEYS[1])
+            if ARGV[3] == '1' and redis.call('sadd', KEYS[2], ARGV[2]) == 0 then return 0 end
+            redis.call('xadd', KEYS[3], '*', 'job', ARGV[2])
+            return 1
+            """;
+
+    // 读取新消息，并在同一脚本内把读到的任务移出合并集合（ARGV[4] = 1 时）：读取与移出之间不会因进程退出而留下成员。
+    // 返回 {等待起点, id1, job1, id2, job2, ...}：读到消息时等待起点为空串；否则为流中最后一条的 id，
+    // 此前的消息均已投递给本组，从这里 XREAD BLOCK 不会错过脚本之后写入的消息（脚本内不能阻塞）
+    private static final String READ_AND_UNMARK = """
+            local r = redis.call('xreadgroup', 'GROUP', ARGV[1], ARGV[2], 'COUNT', ARGV[3], 'STREAMS', KEYS[1], '>')
+            if not r then
+              local last = redis.call('xrevrange', KEYS[1], '+', '-', 'COUNT', 1)
+              return {last[1] and last[1][1] or '0-0'}
+            end
+            local out = {''}
+            for _, e in ipairs(r[1][2]) do
+              local job = ''
+              for i = 1, #e[2], 2 do
+                if e[2][i] == 'job' then job = e[2][i + 1] end
+              end
+              out[#out + 1] = e[1]
+              out[#out + 1] = job
+              if ARGV[4] == '1' then redis.call('srem', KEYS[2], job) end
+            end
+            return out
+            """;
+
+    // 合并集合中只应有尚未投递（消费组 last-delivered-id 之后）的任务。旧版本在读取后单独 SREM，
+    // 两步之间进程退出会留下成员，此后同一任务的入队都被当作重复丢弃；启动时移除这类成员，返回移除数
+    private static final String PRUNE_PENDING = """
+            local last = '0-0'
+            for _, g in ipairs(redis.call('xinfo', 'groups', KEYS[1])) do
+              local name, id
+              for i = 1, #g, 2 do
+                if g[i] == 'name' then name = g[i + 1] elseif g[i] == 'last-delivered-id' then id = g[i + 1] end
+              end
+              if name == ARGV[1] then last = id end
+            end
+            local waiting = {}
+            for _, e in ipairs(redis.call('xrange', KEYS[1], last, '+')) do
+              if e[1] ~= last then
+                for i = 1, #e[2], 2 do
+                  if e[2][i] == 'job' then waiting[e[2][i + 1]] = true end
+                end
+              end
+            end
+            local removed = 0
+            for _, job in ipairs(redis.call('smembers', KEYS[2])) do
+              if not waiting[job] then
+                redis.call('srem', KEYS[2], job)
+                removed = removed + 1
+              end
+            end
+            return removed
+            """;
+
+    // 确认与删除原子执行：流长度即未完成的任务数（等待中 + 处理中）
+    private static final String ACK_AND_DELETE = """
+            local n = redis.call('xack', KEYS[1], ARGV[1], unpack(ARGV, 2))
+            redis.call('xdel', KEYS[1], unpack(ARGV, 2))
+            return n
+            """;
+
+    private final String consumer = nodeName();
+    private final Map<Topic, JobCounters> counters = new EnumMap<>(Topic.class);
+
+    @PostConstruct
+    void init() {
+        for (Topic topic : Topic.values()) {
+            counters.put(topic, new JobCounters());
+            ensureGroup(topic);
+        }
+        Long pruned = redissonClient.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE, PRUNE_PENDING,
+                RScript.ReturnType.INTEGER, List.<Object>of(streamKey(Topic.EMBED), EMBED_PENDING), group);
+        if (pruned != null && pruned > 0) log.warn("Removed {} already delivered jobs from {}", pruned, EMBED_PENDING);
+    }
+
+    // 如 tdl:todo:embed:stream，死信为 tdl:todo:embed:stream:dead
+    static String streamKey(Topic topic) {
+        return "tdl:todo:" + topic.name().toLowerCase() + ":stream";
+    }
+
+    private static String deadLetterKey(Topic topic) {
+        return streamKey(topic) + ":dead";
+    }
+
+    /** 批量入队：所有命令走一个 pipeline（RBatch），一次往返 */
+    @Override
+    public void enqueueAll(Topic topic, List<String> jobs) {
+        if (jobs.isEmpty()) return;
+        RBatch batch = redissonClient.createBatch();
+        for (String job : jobs) {
+            if (topic == Topic.EMBED) {
+                batch.getScript(StringCodec.INSTANCE).evalAsync(RScript.Mode.READ_WRITE, ENQUEUE_COALESCED,
+                        RScript.ReturnType.INTEGER, List.<Object>of(EMBED_PENDING, streamKey(Topic.EMBED)), job);
+            } else {
+                batch.<String, String>getStream(streamKey(topic), StringCodec.INSTANCE).addAsync(StreamAddArgs.entry(FIELD, job));
+            }
+        }
+        List<?> responses = batch.execute().getResponses();
+        long added = topic == Topic.EMBED
+                ? responses.stream().filter(r -> r instanceof Number n && n.longValue() == 1).count()
+                : responses.size();
+        counters.get(topic).enqueued.addAndGet(added);
+    }
+
+    /**
+     * 读取从未投递过的新消息，读到的消息在 ack 之前一直留在本节点的 pending 列表中；
+     * 嵌入任务在同一脚本内移出合并集合（处理期间的新编辑会重新入队）。
+     * 没有新消息且 blockMs > 0 时以 XREAD BLOCK 等待流中出现新写入（不改变消费组状态），
+     * 空闲期间只有一个挂起的命令；被唤醒后再读一次，消息已被其他节点读走时返回空。
+     */
+    @Override
+    public List<Job> read(Topic topic, int max, long blockMs) {
+        List<Object> r = readAndUnmark(topic, max);
+        if (r.size() == 1 && blockMs > 0) {
+            Map<StreamMessageId, Map<String, String>> arrived = stream(streamKey(topic)).read(
+                    StreamReadArgs.greaterThan(parseId((String) r.get(0))).count(1).timeout(Duration.ofMillis(blockMs)));
+            if (arrived == null || arrived.isEmpty()) return List.of();
+            r = readAndUnmark(topic, max);
+        }
+        List<Job> jobs = new ArrayList<>(r.size() / 2);
+        for (int i = 1; i + 1 < r.size(); i += 2) {
+            jobs.add(new Job((String) r.get(i), (String) r.get(i + 1), 1));
+        }
+        return jobs;
+    }
+
+    @Override
+    public void ack(Topic topic, List<Job> jobs) {
+        if (jobs.isEmpty()) return;
+        List<Object> args = new ArrayList<>(jobs.size() + 1);
+        args.add(group);
+        for (Job job : jobs) args.add(job.id());
+        redissonClient.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE, ACK_AND_DELETE,
+                RScript.ReturnType.INTEGER, List.<Object>of(streamKey(topic)), args.toArray());
+        counters.get(topic).acked.addAndGet(jobs.size());
+    }
+
+    /**
+     * 认领空闲超过 claim-idle-ms 的 pending 消息（处理失败未 ack，或所属节点已宕机）交给本节点重试；
+     * 投递次数已达上限的转入死信流。
+     */
+    @Override
+    public List<Job> reclaim(Topic topic, int max) {
+        RStream<String, String> stream = stream(streamKey(topic));
+        List<PendingEntry> pending = stream.listPending(group, StreamMessageId.MIN, StreamMessageId.MAX,
+                claimIdleMs, TimeUnit.MILLISECONDS, max);
+        if (pending.isEmpty()) return List.of();
+
+        List<StreamMessageId> retry = new ArrayList<>();
+        Map<StreamMessageId, Long> deliveries = new LinkedHashMap<>();
+        List<PendingEntry> exhausted = new ArrayList<>();
+        for (PendingEntry entry : pending) {
+            if (entry.getLastTimeDelivered() >= maxDeliveries) {
+                exhausted.add(entry);
+            } else {
+                retry.add(entry.getId());
+                deliveries.put(entry.getId(), entry.getLastTimeDelivered() + 1);
+            }
+        }
+        exhausted.forEach(entry -> deadLetter(topic, stream, entry));
+        if (retry.isEmpty()) return List.of();
+
+        // XCLAIM 带 min-idle 条件：并发认领时只有一个节点能拿到
+        Map<StreamMessageId, Map<String, String>> claimed = stream.claim(group, consumer,
+                claimIdleMs, TimeUnit.MILLISECONDS, retry.toArray(new StreamMessageId[0]));
+        List<Job> jobs = new ArrayList<>(claimed.size());
+        claimed.forEach((id, fields) -> jobs.add(new Job(id.toString(), fields.get(FIELD), deliveries.getOrDefault(id, 2L))));
+        counters.get(topic).reclaimed.addAndGet(jobs.size());
+        if (!jobs.isEmpty()) log.info("Reclaimed {} pending {} jobs for retry", jobs.size(), topic);
+        return jobs;
+    }
+
+    /** 流中未完成的任务数（等待中 + 处理中） */
+    @Override
+    public long backlog(Topic topic) {
+        return stream(streamKey(topic)).size();
+    }
+
+    /**
+     * 把旧版 RQueue（默认 codec）中的任务搬进流，最多 max 条，队列为空时立即返回（不等待）。
+     * 每条的出队与写入流在同一个脚本中完成（MOVE_LEGACY_HEAD），进程在两者之间退出也不会丢任务；
+     * 旧队列中的值由默认 codec 编码，脚本内无法解码，因此先读出队头在 Java 中解码，
+     * 再由脚本按编码后的字节比对队头后弹出。
+     */
+    public int transferFromList(String listKey, Topic topic, int max) {
+        RQueue<String> list = redissonClient.getQueue(listKey);
+        Codec codec = redissonClient.getConfig().getCodec();
+        String job = list.peek();
+        int moved = 0;
+        // 与其他节点争抢队头失败的次数也计入，最多尝试 max 次
+        for (int attempts = 0; job != null && attempts < max; attempts++) {
+            Long r = redissonClient.getScript(ByteArrayCodec.INSTANCE).eval(RScript.Mode.READ_WRITE, MOVE_LEGACY_HEAD,
+                    RScript.ReturnType.INTEGER,
+                    List.<Object>of(listKey, EMBED_PENDING, streamKey(topic)),
+                    encode(codec, job), job.getBytes(StandardCharsets.UTF_8),
+                    (topic == Topic.EMBED ? "1" : "0").getBytes(StandardCharsets.UTF_8));
+            if (r != null && r >= 0) {
+                moved++;
+                if (r == 1) counters.get(topic).enqueued.incrementAndGet();
+            }
+            job = list.peek();
+        }
+        return moved;
+    }
+
+    private static byte[] encode(Codec codec, String value) {
+        ByteBuf buf;
+        try {
+            buf = codec.getValueEncoder().encode(value);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot encode legacy queue entry", e);
+        }
+        try {
+            return ByteBufUtil.getBytes(buf);
+        } finally {
+            buf.release();
+        }
+    }
+
+    public int migrateLegacyEmbedQueue(int max) {
+        int moved = transferFromList(LEGACY_EMBED_QUEUE, Topic.EMBED, max);
+        if (moved > 0) {
+            redissonClient.getSet(LEGACY_EMBED_PENDING).delete();
+            log.info("Moved {} legacy embed jobs into {}", moved, streamKey(Topic.EMBED));
+        }
+        return moved;
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("backend", "redis");
+        out.put("group", group);
+        out.put("consumer", consumer);
+        for (Topic topic : Topic.values()) {
+            RStream<String, String> stream = stream(streamKey(topic));
+            Map<String, Object> t = new LinkedHashMap<>();
+            t.put("stream", streamKey(topic));
+            t.put("length", stream.size());
+            t.put("pending", stream.isExists() ? stream.getPendingInfo(group).getTotal() : 0);
+            t.put("deadLetters", stream(deadLetterKey(topic)).size());
+            counters.get(topic).putInto(t);
+            out.put(topic.name().toLowerCase(), t);
+        }
+        return out;
+    }
+
+    private void deadLetter(Topic topic, RStream<String, String> stream, PendingEntry entry) {
+        Map<StreamMessageId, Map<String, String>> msg = stream.range(entry.getId(), entry.getId());
+        String payload = msg.isEmpty() ? null : msg.values().iterator().next().get(FIELD);
+        if (payload != null) {
+            Map<String, String> fields = new LinkedHashMap<>();
+            fields.put(FIELD, payload);
+            fields.put("sourceId", entry.getId().toString());
+            fields.put("deliveries", String.valueOf(entry.getLastTimeDelivered()));
+            fields.put("lastConsumer", entry.getConsumerName());
+            fields.put("deadAt", String.valueOf(System.currentTimeMillis()));
+            stream(deadLetterKey(topic)).add(StreamAddArgs.entries(fields).trimNonStrict().maxLen(deadLetterMaxLen).noLimit());
+        }
+        ack(topic, List.of(new Job(entry.getId().toString(), payload, entry.getLastTimeDelivered())));
+        counters.get(topic).deadLettered.incrementAndGet();
+        log.warn("Moved {} job {} to {} after {} deliveries", topic, payload, deadLetterKey(topic), entry.getLastTimeDelivered());
+    }
+
+    private List<Object> readAndUnmark(Topic topic, int max) {
+        boolean unmark = topic == Topic.EMBED;
+        List<Object> keys = unmark ? List.of(streamKey(topic), EMBED_PENDING) : List.of(streamKey(topic));
+        try {
+            return redissonClient.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE, READ_AND_UNMARK,
+                    RScript.ReturnType.MULTI, keys, group, consumer, String.valueOf(max), unmark ? "1" : "0");
+        } catch (RuntimeException e) {
+            // 流或消费组被外部删除（如 FLUSHDB）后重建
+            if (String.valueOf(e.getMessage()).contains("NOGROUP")) {
+                ensureGroup(topic);
+                return List.of();
+            }
+            throw e;
+        }
+    }
+
+    private static StreamMessageId parseId(String id) {
+        int dash = id.indexOf('-');
+        return new StreamMessageId(Long.parseLong(id.substring(0, dash)), Long.parseLong(id.substring(dash + 1)));
+    }
+
+    private void ensureGroup(Topic topic) {
+        try {
+            stream(streamKey(topic)).createGroup(StreamCreateGroupArgs.name(group).id(StreamMessageId.ALL).makeStream());
+            log.info("Created consumer group {} on {}", group, streamKey(topic));
+        } catch (RuntimeException e) {
+            if (!String.valueOf(e.getMessage()).contains("BUSYGROUP")) throw e;
+        }
+    }
+
+    private RStream<String, String> stream(String key) {
+        return redissonClient.getStream(key, StringCodec.INSTANCE);
+    }
+
+    private static String nodeName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + ":" + ProcessHandle.current().pid();
+    }
+}
@@ -0,0 +1,8 @@
+package cn.bitsleep.tdl.queue;
+
+/**
+ * 任务主题。任务内容为字符串（如嵌入任务 userId:id），由消费端解析。
+ */
+public enum Topic {
+    EMBED
+}
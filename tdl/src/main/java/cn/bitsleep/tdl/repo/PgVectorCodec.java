@@ -0,0 +1,30 @@
+package cn.bitsleep.tdl.repo;
+
+import org.springframework.jdbc.core.SqlTypeValue;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * pgvector 参数编码：float[] 直接按 float4[] 绑定（pgjdbc 对原始类型数组走二进制格式发送），
+ * SQL 端经 real[] -> vector 转换得到向量。全程无装箱、无文本格式化与解析。
+ * 所有向 SQL 发送向量（写入与查询向量）的地方都应通过这里绑定。
+ */
+public final class PgVectorCodec {
+
+    private PgVectorCodec() {}
+
+    /** 命名参数在 SQL 中的向量表达式，例如 {@code "embedding <=> " + PgVectorCodec.sql("q")} */
+    public static String sql(String paramName) {
+        return "CAST(CAST(:" + paramName + " AS real[]) AS vector)";
+    }
+
+    /** 供 NamedParameterJdbcTemplate / JdbcTemplate 使用的参数值 */
+    public static SqlTypeValue param(float[] vector) {
+        return (ps, index, sqlType, typeName) -> bind(ps, index, vector);
+    }
+
+    public static void bind(PreparedStatement ps, int index, float[] vector) throws SQLException {
+        ps.setObject(index, vector);
+    }
+}
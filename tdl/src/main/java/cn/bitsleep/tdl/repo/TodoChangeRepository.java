@@ -0,0 +1,91 @@
+package cn.bitsleep.tdl.repo;
+
+import cn.bitsleep.tdl.dto.TodoView;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 增量同步读取：按 (时间, id) 水位线顺序读某用户的条目变更与删除墓碑，分别走
+ * idx_todo_item_user_updated_id / idx_todo_tombstone_user_deleted，成本与变更数成正比。
+ * id 按 "C" 排序规则比较，与 Java 端合并两路结果时的字符串顺序一致。
+ */
+@Repository
+@RequiredArgsConstructor
+public class TodoChangeRepository {
+
+    private final NamedParameterJdbcTemplate jdbc;
+
+    private static final String CHANGED = "SELECT " + TodoViewRowMapper.COLUMNS + """
+
+            FROM todo_item ti
+            WHERE ti.user_id = :userId
+              AND (ti.updated_at, ti.id COLLATE "C") > (:at, :id)
+            ORDER BY ti.updated_at, ti.id COLLATE "C"
+            LIMIT :limit
+            """;
+
+    private static final String CHANGED_ALL = "SELECT " + TodoViewRowMapper.COLUMNS + """
+
+            FROM todo_item ti
+            WHERE ti.user_id = :userId
+            ORDER BY ti.updated_at, ti.id COLLATE "C"
+            LIMIT :limit
+            """;
+
+    private static final String DELETED = """
+            SELECT todo_id, deleted_at FROM todo_tombstone
+            WHERE user_id = :userId
+              AND (deleted_at, todo_id COLLATE "C") > (:at, :id)
+            ORDER BY deleted_at, todo_id COLLATE "C"
+            LIMIT :limit
+            """;
+
+    private static final String PURGE_TOMBSTONES = """
+            DELETE FROM todo_tombstone
+            WHERE todo_id IN (SELECT todo_id FROM todo_tombstone WHERE deleted_at < :before LIMIT :limit)
+            """;
+
+    public record Tombstone(String id, Instant deletedAt) {}
+
+    /** 数据库当前时间（与 updated_at / deleted_at 同一时钟、同一时区语义） */
+    public Instant now() {
+        return jdbc.queryForObject("SELECT LOCALTIMESTAMP", Map.of(), Timestamp.class).toInstant();
+    }
+
+    /** 读取 (updated_at, id) 大于 (at, afterId) 的条目；at 为 null 时从头读取（首次同步） */
+    public List<TodoView> changedAfter(String userId, Instant at, String afterId, int limit) {
+        if (at == null) {
+            return jdbc.query(CHANGED_ALL, new MapSqlParameterSource().addValue("userId", userId).addValue("limit", limit),
+                    TodoViewRowMapper.INSTANCE);
+        }
+        return jdbc.query(CHANGED, params(userId, at, afterId, limit), TodoViewRowMapper.INSTANCE);
+    }
+
+    public List<Tombstone> deletedAfter(String userId, Instant at, String afterId, int limit) {
+        return jdbc.query(DELETED, params(userId, at, afterId, limit),
+                (rs, i) -> new Tombstone(rs.getString("todo_id"), rs.getTimestamp("deleted_at").toInstant()));
+    }
+
+    /** 删除早于 before 的墓碑，最多 limit 行 */
+    public int purgeTombstones(Instant before, int limit) {
+        return jdbc.update(PURGE_TOMBSTONES, new MapSqlParameterSource()
+                .addValue("before", Timestamp.from(before))
+                .addValue("limit", limit));
+    }
+
+    // updated_at / deleted_at 为不带时区的 TIMESTAMP，按 JVM 时区绑定（与写入一致）
+    private static MapSqlParameterSource params(String userId, Instant at, String afterId, int limit) {
+        return new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("at", Timestamp.from(at))
+                .addValue("id", afterId)
+                .addValue("limit", limit);
+    }
+}
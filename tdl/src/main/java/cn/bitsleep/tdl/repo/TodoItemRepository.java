@@ -15,137 +15,6 @@ import java.util.List;
 @Repository
 public interface TodoItemRepository extends JpaRepository<TodoItem, String> {
 
-    @Query(value = """
-            SELECT * FROM todo_item
-            WHERE user_id = :userId
-            AND status = ANY(:statusCodes)
-            AND (
-                CAST(:cursorCreatedAt AS TIMESTAMP) IS NULL
-                OR created_at < CAST(:cursorCreatedAt AS TIMESTAMP)
-                OR (created_at = CAST(:cursorCreatedAt AS TIMESTAMP) AND id < :cursorId)
-            )
-            ORDER BY created_at DESC, id DESC
-            LIMIT :size
-            """, nativeQuery = true)
-    List<TodoItem> keysetPage(@Param("userId") String userId,
-                              @Param("statusCodes") Short[] statusCodes,
-                              @Param("cursorCreatedAt") Instant cursorCreatedAt,
-                              @Param("cursorId") String cursorId,
-                              @Param("size") int size);
-
-        @Query(value = """
-                        SELECT * FROM todo_item
-                        WHERE user_id = :userId
-                        AND status = ANY(:statusCodes)
-                        AND (
-                                CAST(:cursorCreatedAt AS TIMESTAMP) IS NULL
-                                OR created_at > CAST(:cursorCreatedAt AS TIMESTAMP)
-                                OR (created_at = CAST(:cursorCreatedAt AS TIMESTAMP) AND id > :cursorId)
-                        )
-                        ORDER BY created_at ASC, id ASC
-                        LIMIT :size
-                        """, nativeQuery = true)
-        List<TodoItem> keysetPageAsc(@Param("userId") String userId,
-                                                                 @Param("statusCodes") Short[] statusCodes,
-                                                                 @Param("cursorCreatedAt") Instant cursorCreatedAt,
-                                                                 @Param("cursorId") String cursorId,
-                                                                 @Param("size") int size);
-
-    @Query(value = """
-            SELECT * FROM todo_item
-            WHERE user_id = :userId
-            AND status = ANY(:statusCodes)
-            ORDER BY created_at DESC, id DESC
-            LIMIT :size
-            """, nativeQuery = true)
-    List<TodoItem> firstPage(@Param("userId") String userId,
-                             @Param("statusCodes") Short[] statusCodes,
-                             @Param("size") int size);
-
-    @Query(value = """
-            SELECT * FROM todo_item
-            WHERE user_id = :userId
-            AND status = ANY(:statusCodes)
-            ORDER BY created_at ASC, id ASC
-            LIMIT :size
-            """, nativeQuery = true)
-    List<TodoItem> firstPageAsc(@Param("userId") String userId,
-                                @Param("statusCodes") Short[] statusCodes,
-                                @Param("size") int size);
-
-                // 高级过滤（不做 keyset，面向带筛选/排序场景；数据量大场景可进一步优化为 keyset + 动态 SQL）
-                @Query(value = """
-                                                SELECT DISTINCT ti.* FROM todo_item ti
-                                                LEFT JOIN todo_tag tt ON tt.todo_id = ti.id
-                                                WHERE ti.user_id = :userId
-                                                        AND ti.status = ANY(:statusCodes)
-                                                        AND ( :priorityLevelId IS NULL OR ti.priority_level_id = :priorityLevelId )
-                                                        AND ( :categoryId IS NULL OR ti.category_id = :categoryId )
-                                                        AND ( :tagsCsv IS NULL OR tt.tag_id = ANY ( string_to_array(:tagsCsv, ',') ) )
-                                                ORDER BY ti.created_at DESC, ti.id DESC
-                                                LIMIT :size
-                                                """, nativeQuery = true)
-                List<TodoItem> filterCreatedDesc(@Param("userId") String userId,
-                                                                                                                                                 @Param("statusCodes") Short[] statusCodes,
-                                                                                                                                                 @Param("priorityLevelId") String priorityLevelId,
-                                                                                                                                                 @Param("categoryId") String categoryId,
-                                                                                                                                                 @Param("tagsCsv") String tagsCsv,
-                                                                                                                                                 @Param("size") int size);
-
-                                @Query(value = """
-                                                                SELECT DISTINCT ti.* FROM todo_item ti
-                                                                LEFT JOIN todo_tag tt ON tt.todo_id = ti.id
-                                                                WHERE ti.user_id = :userId
-                                                                        AND ti.status = ANY(:statusCodes)
-                                                                        AND ( :priorityLevelId IS NULL OR ti.priority_level_id = :priorityLevelId )
-                                                                        AND ( :categoryId IS NULL OR ti.category_id = :categoryId )
-                                                                        AND ( :tagsCsv IS NULL OR tt.tag_id = ANY ( string_to_array(:tagsCsv, ',') ) )
-                                                                ORDER BY ti.created_at ASC, ti.id ASC
-                                                                LIMIT :size
-                                                                """, nativeQuery = true)
-                                List<TodoItem> filterCreatedAsc(@Param("userId") String userId,
-                                                                                                                                                                @Param("statusCodes") Short[] statusCodes,
-                                                                                                                                                                @Param("priorityLevelId") String priorityLevelId,
-                                                                                                                                                                @Param("categoryId") String categoryId,
-                                                                                                                                                                @Param("tagsCsv") String tagsCsv,
-                                                                                                                                                                @Param("size") int size);
-
-                @Query(value = """
-                                                SELECT DISTINCT ti.* FROM todo_item ti
-                                                LEFT JOIN todo_tag tt ON tt.todo_id = ti.id
-                                                WHERE ti.user_id = :userId
-                                                        AND ti.status = ANY(:statusCodes)
-                                                        AND ( :priorityLevelId IS NULL OR ti.priority_level_id = :priorityLevelId )
-                                                        AND ( :categoryId IS NULL OR ti.category_id = :categoryId )
-                                                        AND ( :tagsCsv IS NULL OR tt.tag_id = ANY ( string_to_array(:tagsCsv, ',') ) )
-                                                ORDER BY ti.priority_score DESC, ti.id DESC
-                                                LIMIT :size
-                                                """, nativeQuery = true)
-                List<TodoItem> filterPriorityDesc(@Param("userId") String userId,
-                                                                                                                                                        @Param("statusCodes") Short[] statusCodes,
-                                                                                                                                                        @Param("priorityLevelId") String priorityLevelId,
-                                                                                                                                                        @Param("categoryId") String categoryId,
-                                                                                                                                                        @Param("tagsCsv") String tagsCsv,
-                                                                                                                                                        @Param("size") int size);
-
-                                @Query(value = """
-                                                                SELECT DISTINCT ti.* FROM todo_item ti
-                                                                LEFT JOIN todo_tag tt ON tt.todo_id = ti.id
-                                                                WHERE ti.user_id = :userId
-                                                                        AND ti.status = ANY(:statusCodes)
-                                                                        AND ( :priorityLevelId IS NULL OR ti.priority_level_id = :priorityLevelId )
-                                                                        AND ( :categoryId IS NULL OR ti.category_id = :categoryId )
-                                                                        AND ( :tagsCsv IS NULL OR tt.tag_id = ANY ( string_to_array(:tagsCsv, ',') ) )
-                                                                ORDER BY ti.priority_score ASC, ti.id ASC
-                                                                LIMIT :size
-                                                                """, nativeQuery = true)
-                                List<TodoItem> filterPriorityAsc(@Param("userId") String userId,
-                                                                                                                                                                 @Param("statusCodes") Short[] statusCodes,
-                                                                                                                                                                 @Param("priorityLevelId") String priorityLevelId,
-                                                                                                                                                                 @Param("categoryId") String categoryId,
-                                                                                                                                                                 @Param("tagsCsv") String tagsCsv,
-                                                                                                                                                                 @Param("size") int size);
-
     @Modifying
     @Query(value = """
             UPDATE todo_item
@@ -190,20 +59,16 @@ public interface TodoItemRepository extends JpaRepository<TodoItem, String> {
                       @Param("text") String text,
                       @Param("metadata") String metadata);
 
-    @Modifying
+    // 仅返回向量缺失、或 text 内容哈希与已嵌入版本不一致的行（内容未变的 job 直接跳过推理）
+    // 需要 user_id / text / metadata 等完整实体列，不使用列表的窄投影
     @Query(value = """
-            UPDATE todo_item SET
-              embedding = CAST(:vec AS vector),
-              text = :text,
-                                                        metadata = CAST(:metadata AS jsonb),
-                                                        version = version + 1
-            WHERE id = :id AND user_id = :userId
+            SELECT * FROM todo_item
+            WHERE id = ANY(CAST(:ids AS text[]))
+              AND (embedding IS NULL
+                   OR embedding_hash IS DISTINCT FROM md5(coalesce(text, ''))
+                   OR embedding_model_version IS DISTINCT FROM :version)
             """, nativeQuery = true)
-    int updateEmbedding(@Param("id") String id,
-                        @Param("userId") String userId,
-                        @Param("vec") String vectorLiteral,
-                        @Param("text") String text,
-                        @Param("metadata") String metadata);
+    List<TodoItem> findNeedingEmbedding(@Param("ids") String[] ids, @Param("version") String version);
 
                 @Query(value = """
                                                 SELECT
@@ -0,0 +1,207 @@
+package cn.bitsleep.tdl.repo;
+
+import cn.bitsleep.tdl.dto.TodoView;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.support.SqlArrayValue;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 待办列表查询：按实际出现的筛选条件拼出 SQL，不再使用 (:x IS NULL OR col = :x) 这类兜底谓词。
+ * 同一形状（排序 + 方向 + 出现的筛选 + 是否有游标）始终生成同一段 SQL 文本并缓存，
+ * 驱动按 SQL 文本复用服务端预编译语句，Postgres 转为通用计划后也能按索引执行。
+ */
+@Repository
+@RequiredArgsConstructor
+public class TodoListRepository {
+
+    private final NamedParameterJdbcTemplate jdbc;
+    private final ObjectMapper objectMapper;
+
+    private final Map<Shape, String> sqlCache = new ConcurrentHashMap<>();
+
+    public enum Sort {
+        CREATED("ti.created_at"),
+        PRIORITY("ti.priority_score");
+
+        final String column;
+
+        Sort(String column) {
+            this.column = column;
+        }
+    }
+
+    public enum TagMatch { NONE, ANY, ALL }
+
+    /**
+     * 一次列表查询。cursorKey 为上一页最后一行的排序键（Instant 或 BigDecimal），首页为 null；
+     * tagIds 需去重（全部匹配按命中数计数）。
+     */
+    public record ListQuery(String userId, Short[] statusCodes, String priorityLevelId, String categoryId,
+                            String[] tagIds, boolean matchAllTags, Sort sort, boolean asc,
+                            Object cursorKey, String cursorId, int size) {
+
+        Shape shape() {
+            TagMatch tags = tagIds == null || tagIds.length == 0 ? TagMatch.NONE
+                    : matchAllTags ? TagMatch.ALL : TagMatch.ANY;
+            return new Shape(sort, asc, present(priorityLevelId), present(categoryId), tags, cursorKey != null);
+        }
+
+        private static boolean present(String s) {
+            return s != null && !s.isBlank();
+        }
+    }
+
+    /** 决定 SQL 文本的部分（不含参数值） */
+    public record Shape(Sort sort, boolean asc, boolean priorityLevel, boolean category, TagMatch tags, boolean cursor) {
+
+        @Override
+        public String toString() {
+            return sort.name().toLowerCase() + (asc ? " asc" : " desc")
+                    + (priorityLevel ? " +level" : "") + (category ? " +category" : "")
+                    + (tags != TagMatch.NONE ? " +tags:" + tags.name().toLowerCase() : "")
+                    + (cursor ? " +cursor" : "");
+        }
+    }
+
+    public List<TodoView> page(ListQuery q) {
+        return jdbc.query(sqlFor(q.shape()), params(q), TodoViewRowMapper.INSTANCE);
+    }
+
+    /** 当前缓存的 SQL 形状数 */
+    public int cachedShapes() {
+        return sqlCache.size();
+    }
+
+    /**
+     * 对每种形状执行 EXPLAIN（不执行查询本身），列出计划中用到的索引，以及 todo_item 是否出现顺序扫描。
+     * 参数取该用户已有的优先级 / 分类 / 标签（没有时用占位值）。
+     */
+    public List<Map<String, Object>> explainShapes(String userId) {
+        String levelId = firstId("SELECT id FROM priority_level WHERE user_id = :userId LIMIT 1", userId);
+        String categoryId = firstId("SELECT id FROM category WHERE user_id = :userId LIMIT 1", userId);
+        String tagId = firstId("SELECT id FROM tag WHERE user_id = :userId LIMIT 1", userId);
+        Short[] active = {0, 1};
+
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Sort sort : Sort.values()) {
+            for (boolean asc : new boolean[]{false, true}) {
+                for (int filters = 0; filters < 4; filters++) {
+                    for (TagMatch tags : TagMatch.values()) {
+                        for (boolean cursor : new boolean[]{false, true}) {
+                            Object key = cursor ? (sort == Sort.CREATED ? Instant.now() : BigDecimal.ZERO) : null;
+                            ListQuery q = new ListQuery(userId, active,
+                                    (filters & 1) != 0 ? levelId : null,
+                                    (filters & 2) != 0 ? categoryId : null,
+                                    tags == TagMatch.NONE ? null : new String[]{tagId}, tags == TagMatch.ALL,
+                                    sort, asc, key, cursor ? "" : null, 20);
+                            out.add(explain(q));
+                        }
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    private Map<String, Object> explain(ListQuery q) {
+        Shape shape = q.shape();
+        String json = jdbc.queryForObject("EXPLAIN (FORMAT JSON) " + sqlFor(shape), params(q), String.class);
+        Set<String> indexes = new LinkedHashSet<>();
+        boolean[] seqScan = {false};
+        try {
+            walk(objectMapper.readTree(json).path(0).path("Plan"), indexes, seqScan);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unreadable plan for " + shape, e);
+        }
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("shape", shape.toString());
+        row.put("indexes", indexes);
+        row.put("seqScanOnTodoItem", seqScan[0]);
+        return row;
+    }
+
+    private static void walk(JsonNode node, Set<String> indexes, boolean[] seqScan) {
+        if (node.hasNonNull("Index Name")) indexes.add(node.get("Index Name").asText());
+        if ("Seq Scan".equals(node.path("Node Type").asText()) && "todo_item".equals(node.path("Relation Name").asText())) {
+            seqScan[0] = true;
+        }
+        for (JsonNode child : node.path("Plans")) walk(child, indexes, seqScan);
+    }
+
+    private String firstId(String sql, String userId) {
+        List<String> ids = jdbc.queryForList(sql, Map.of("userId", userId), String.class);
+        return ids.isEmpty() ? "__none__" : ids.get(0);
+    }
+
+    private String sqlFor(Shape shape) {
+        return sqlCache.computeIfAbsent(shape, TodoListRepository::build);
+    }
+
+    private static String build(Shape s) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(TodoViewRowMapper.COLUMNS).append("""
+
+                FROM todo_item ti
+                WHERE ti.user_id = :userId
+                  AND ti.status = ANY(:statusCodes)
+                """);
+        if (s.priorityLevel()) sql.append("  AND ti.priority_level_id = :priorityLevelId\n");
+        if (s.category()) sql.append("  AND ti.category_id = :categoryId\n");
+        switch (s.tags()) {
+            // 任一：按 (todo_id, tag_id) 主键逐行探测的半连接
+            case ANY -> sql.append("""
+                      AND EXISTS (SELECT 1 FROM todo_tag tt
+                                  WHERE tt.todo_id = ti.id AND tt.tag_id = ANY(:tagIds))
+                    """);
+            // 全部：从 idx_todo_tag_tag 取命中的 todo_id 计数
+            case ALL -> sql.append("""
+                      AND ti.id IN (SELECT tt.todo_id FROM todo_tag tt
+                                    WHERE tt.tag_id = ANY(:tagIds)
+                                    GROUP BY tt.todo_id
+                                    HAVING count(*) = :tagCount)
+                    """);
+            case NONE -> { }
+        }
+        String cmp = s.asc() ? ">" : "<";
+        String dir = s.asc() ? "ASC" : "DESC";
+        if (s.cursor()) {
+            sql.append("  AND (").append(s.sort().column).append(", ti.id) ").append(cmp).append(" (:cursorKey, :cursorId)\n");
+        }
+        sql.append("ORDER BY ").append(s.sort().column).append(' ').append(dir).append(", ti.id ").append(dir).append('\n');
+        sql.append("LIMIT :size");
+        return sql.toString();
+    }
+
+    private static MapSqlParameterSource params(ListQuery q) {
+        var params = new MapSqlParameterSource()
+                .addValue("userId", q.userId())
+                .addValue("statusCodes", new SqlArrayValue("smallint", (Object[]) q.statusCodes()))
+                .addValue("priorityLevelId", q.priorityLevelId())
+                .addValue("categoryId", q.categoryId())
+                .addValue("size", q.size());
+        if (q.tagIds() != null && q.tagIds().length > 0) {
+            params.addValue("tagIds", new SqlArrayValue("text", (Object[]) q.tagIds()));
+            params.addValue("tagCount", q.tagIds().length);
+        }
+        if (q.cursorKey() != null) {
+            // created_at 为不带时区的 TIMESTAMP，按 JVM 时区绑定（与写入一致）
+            Object key = q.cursorKey() instanceof Instant i ? Timestamp.from(i) : q.cursorKey();
+            params.addValue("cursorKey", key).addValue("cursorId", q.cursorId());
+        }
+        return params;
+    }
+}
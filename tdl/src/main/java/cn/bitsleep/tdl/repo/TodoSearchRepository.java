@@ -0,0 +1,133 @@
+package cn.bitsleep.tdl.repo;
+
+import cn.bitsleep.tdl.dto.TodoView;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 混合检索单语句实现：向量腿与 trigram/ILIKE 文本腿作为 CTE，在 SQL 内融合打分并直接返回接口所需的列。
+ * 索引扫描参数（probes / ef_search / 迭代扫描）与查询在同一次 JDBC 调用中发送。
+ */
+@Repository
+@RequiredArgsConstructor
+public class TodoSearchRepository {
+
+    private final NamedParameterJdbcTemplate jdbc;
+    private final TodoVectorRepository vectorRepo;
+
+    // 向量腿：先走 ANN 取 k 个最近邻（紧凑表示时含全精度重排，见 TodoVectorRepository.annSubquery），
+    // 再按阈值过滤并编号；文本腿评分与 TodoItemRepository.textSearch 一致
+    private static final String HYBRID = """
+            WITH vec AS (
+              SELECT id, (2 - dist) / 2 AS sim, row_number() OVER (ORDER BY dist) AS rnk
+              FROM (
+                {ann}
+              ) ann
+              WHERE (2 - dist) / 2 >= :semanticMin
+            ),
+            txt AS (
+              SELECT id, score, title_exact, title_prefix, row_number() OVER (ORDER BY score DESC) AS rnk
+              FROM (
+                SELECT id,
+                  (CASE WHEN title ILIKE :q THEN 0.6
+                        WHEN title ILIKE (:q || '%') THEN 0.5
+                        WHEN title ILIKE ('%' || :q || '%') THEN 0.4
+                        ELSE 0 END)
+                  + (CASE WHEN coalesce(description, '') ILIKE :q THEN 0.3
+                          WHEN coalesce(description, '') ILIKE (:q || '%') THEN 0.2
+                          WHEN coalesce(description, '') ILIKE ('%' || :q || '%') THEN 0.1
+                          ELSE 0 END)
+                  + 0.20 * similarity(title, :q)
+                  + 0.10 * similarity(coalesce(description, ''), :q) AS score,
+                  (title ILIKE :q) AS title_exact,
+                  (title ILIKE (:q || '%')) AS title_prefix
+                FROM todo_item
+                WHERE user_id = :userId AND status <> 2
+                  AND (title ILIKE ('%' || :q || '%') OR coalesce(description, '') ILIKE ('%' || :q || '%'))
+              ) scored
+              WHERE score >= :textMin
+              ORDER BY score DESC
+              LIMIT :k
+            ),
+            fused AS (
+              SELECT coalesce(v.id, t.id) AS id, {fused} AS score
+              FROM vec v FULL OUTER JOIN txt t ON t.id = v.id
+            )
+            SELECT {columns}
+            FROM fused f JOIN todo_item ti ON ti.id = f.id
+            ORDER BY f.score DESC, ti.id
+            LIMIT :k
+            """;
+
+    // 加权融合：与原 Java 端逻辑一致（文本命中时叠加子串/标题加成并封顶）
+    private static final String FUSE_WEIGHTED = """
+            CASE WHEN t.id IS NULL THEN :vecWeight * v.sim
+                 ELSE LEAST(:scoreCap, coalesce(:vecWeight * v.sim, 0) + :textWeight * t.score + :containsBoost
+                      + CASE WHEN t.title_exact THEN :exactBoost WHEN t.title_prefix THEN :prefixBoost ELSE 0 END)
+            END""";
+
+    // RRF：只看两条腿内的名次；标题加成按 1 / (rrfK + 1)（即名次第一的贡献）缩放到同一量级
+    private static final String FUSE_RRF = """
+            coalesce(1.0 / (:rrfK + v.rnk), 0) + coalesce(1.0 / (:rrfK + t.rnk), 0)
+              + (CASE WHEN t.title_exact THEN :exactBoost WHEN t.title_prefix THEN :prefixBoost ELSE 0 END) / (:rrfK + 1)""";
+
+    private String hybridWeighted;
+    private String hybridRrf;
+
+    @PostConstruct
+    void init() {
+        hybridWeighted = build(FUSE_WEIGHTED);
+        hybridRrf = build(FUSE_RRF);
+    }
+
+    private String build(String fused) {
+        return HYBRID.replace("{ann}", vectorRepo.annSubquery("qvec"))
+                .replace("{fused}", fused)
+                .replace("{columns}", TodoViewRowMapper.COLUMNS);
+    }
+
+    @Transactional(readOnly = true)
+    public List<TodoView> hybridSearch(String userId, String query, float[] queryVector, int k,
+                                       double semanticMin, double textMin, Fusion fusion) {
+        var params = new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("q", query)
+                .addValue("k", k)
+                .addValue("semanticMin", semanticMin)
+                .addValue("textMin", textMin)
+                .addValue("vecWeight", fusion.vectorWeight())
+                .addValue("textWeight", fusion.textWeight())
+                .addValue("containsBoost", fusion.containsBoost())
+                .addValue("exactBoost", fusion.titleExactBoost())
+                .addValue("prefixBoost", fusion.titlePrefixBoost())
+                .addValue("scoreCap", fusion.scoreCap())
+                .addValue("rrfK", fusion.rrfK());
+        vectorRepo.bindAnnParams(params, "qvec", queryVector, k);
+        // 扫描参数设置与检索拼成一个多语句调用：第一个结果是 set_config，第二个才是检索结果
+        String sql = vectorRepo.searchSettingsStatement(k, params) + ";\n" + (fusion.rrf() ? hybridRrf : hybridWeighted);
+        return jdbc.execute(sql, params, (PreparedStatementCallback<List<TodoView>>) ps -> {
+            ps.execute();
+            List<TodoView> out = new ArrayList<>(k);
+            if (!ps.getMoreResults()) return out;
+            try (ResultSet rs = ps.getResultSet()) {
+                while (rs.next()) out.add(TodoViewRowMapper.INSTANCE.mapRow(rs, out.size()));
+            }
+            return out;
+        });
+    }
+
+    /**
+     * 融合参数。rrf=false 时按权重融合；rrf=true 时按 1 / (rrfK + 名次) 融合。
+     */
+    public record Fusion(boolean rrf, double vectorWeight, double textWeight, double containsBoost,
+                         double titleExactBoost, double titlePrefixBoost, double scoreCap, int rrfK) {}
+}
@@ -0,0 +1,305 @@
+package cn.bitsleep.tdl.repo;
+
+import cn.bitsleep.tdl.config.EmbeddingVersion;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Statement;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 向量相关的原生 SQL（JDBC 直连，向量以二进制 float4[] 绑定，见 {@link PgVectorCodec}）。
+ */
+@Repository
+@RequiredArgsConstructor
+@Slf4j
+public class TodoVectorRepository {
+
+    private final NamedParameterJdbcTemplate jdbc;
+    private final EmbeddingVersion embeddingVersion;
+
+    // 模型/文本格式切换期间，旧版本向量与当前模型的查询向量不可比：exclude（默认）只检索当前版本的向量，include 全部参与
+    @Value("${tdl.search.stale-vectors:exclude}")
+    private String staleVectors;
+
+    // pgvector >= 0.8 的迭代索引扫描：过滤后结果不足 k 时继续扫描索引，而不是返回残缺结果；off 关闭
+    @Value("${tdl.vector.iterative-scan:relaxed_order}")
+    private String iterativeScan;
+
+    private volatile Boolean iterativeScanSupported;
+
+    // 每次查询按 k 调整索引扫描宽度：ivfflat.probes ≈ sqrt(lists) * max(1, k / 10)；hnsw.ef_search = max(ef-search-min, k * ef-search-per-k)
+    @Value("${tdl.vector.search.probes-min:1}")
+    private int probesMin;
+
+    @Value("${tdl.vector.search.ef-search-min:40}")
+    private int efSearchMin;
+
+    @Value("${tdl.vector.search.ef-search-per-k:2}")
+    private int efSearchPerK;
+
+    // full | halfvec | binary（见 VectorStorage）：ANN 索引使用的向量表示
+    @Value("${tdl.vector.storage:full}")
+    private String storageMode;
+
+    // 紧凑表示下取 k * rerank-factor 个候选再按全精度重排
+    @Value("${tdl.vector.rerank-factor:4}")
+    private int rerankFactor;
+
+    @Value("${tdl.embedding.dimension:384}")
+    private int dimension;
+
+    private VectorStorage storage;
+    private final Map<VectorStorage, String> nearestSql = new EnumMap<>(VectorStorage.class);
+
+    // 当前生效的 ANN 索引（由 VectorIndexManager 在检查/重建后更新）
+    private volatile String indexMethod = "none";
+    private volatile int ivfflatLists = 0;
+
+    // 向量检索只在当前用户、未删除、当前版本的行内进行（过滤在索引扫描内完成，而不是取全局 top-k 后在 Java 端丢弃）
+    private static final String ANN_FILTER = """
+            user_id = :userId AND status <> 2 AND embedding IS NOT NULL
+                AND (:includeStale OR embedding_model_version = :modelVersion)""";
+
+    private static final String ANN_FULL = """
+            SELECT id, {dist} AS dist
+              FROM todo_item
+              WHERE {filter}
+              ORDER BY {dist}
+              LIMIT :k""";
+
+    // 内层按紧凑表示的距离走索引取候选，外层按全精度距离重排
+    private static final String ANN_RERANK = """
+            SELECT id, {dist} AS dist
+              FROM (
+                SELECT id, embedding
+                FROM todo_item
+                WHERE {filter}
+                ORDER BY {compactDist}
+                LIMIT :candidates
+              ) cand
+              ORDER BY dist
+              LIMIT :k""";
+
+    // score 与 PgVectorEmbeddingStore 的相关度同一尺度：(2 - 余弦距离) / 2
+    private static final String NEAREST = """
+            SELECT id, (2 - dist) / 2 AS score
+            FROM (
+              {ann}
+            ) a
+            ORDER BY dist
+            """;
+
+    @PostConstruct
+    void init() {
+        storage = VectorStorage.of(storageMode);
+        for (VectorStorage s : VectorStorage.values()) {
+            nearestSql.put(s, NEAREST.replace("{ann}", annSubquery(s, "q")));
+        }
+    }
+
+    // 记录被嵌入文本的哈希；text 在推理期间被改过的行不写（新的 job 会重新计算）。
+    // 只写客户端不可见的列，不递增 version：updated_at 触发器据此保持水位线不变，增量同步不会重发该行
+    private static final String UPDATE_EMBEDDING = """
+            UPDATE todo_item SET
+              embedding = %s,
+              embedding_hash = md5(:text),
+              embedding_model_version = :modelVersion
+            WHERE id = :id AND user_id = :userId AND text IS NOT DISTINCT FROM :text
+            """.formatted(PgVectorCodec.sql("vec"));
+
+    // 回填：按当前格式重写 text 并写入新向量；title/description 在计算期间被修改过的行不写（修改本身会触发新的 job）
+    private static final String BACKFILL_EMBEDDING = """
+            UPDATE todo_item SET
+              text = :text,
+              embedding = %s,
+              embedding_hash = md5(:text),
+              embedding_model_version = :modelVersion
+            WHERE id = :id AND title = :title AND description IS NOT DISTINCT FROM :description
+            """.formatted(PgVectorCodec.sql("vec"));
+
+    /** 一个 JDBC batch 写回整批向量，返回更新的行数 */
+    public int updateEmbeddings(List<EmbeddingUpdate> updates, String modelVersion) {
+        SqlParameterSource[] batch = updates.stream()
+                .map(u -> new MapSqlParameterSource()
+                        .addValue("id", u.id())
+                        .addValue("userId", u.userId())
+                        .addValue("vec", PgVectorCodec.param(u.vector()))
+                        .addValue("text", u.text())
+                        .addValue("modelVersion", modelVersion))
+                .toArray(SqlParameterSource[]::new);
+        return sum(jdbc.batchUpdate(UPDATE_EMBEDDING, batch));
+    }
+
+    public int backfillEmbeddings(List<BackfillUpdate> updates, String modelVersion) {
+        SqlParameterSource[] batch = updates.stream()
+                .map(u -> new MapSqlParameterSource()
+                        .addValue("id", u.id())
+                        .addValue("title", u.title())
+                        .addValue("description", u.description())
+                        .addValue("text", u.text())
+                        .addValue("vec", PgVectorCodec.param(u.vector()))
+                        .addValue("modelVersion", modelVersion))
+                .toArray(SqlParameterSource[]::new);
+        return sum(jdbc.batchUpdate(BACKFILL_EMBEDDING, batch));
+    }
+
+    private static int sum(int[] counts) {
+        int updated = 0;
+        for (int count : counts) {
+            updated += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+        }
+        return updated;
+    }
+
+    @Transactional(readOnly = true)
+    public List<VectorMatch> searchNearest(String userId, float[] query, int k) {
+        applySearchSettings(k);
+        return nearest(storage, userId, query, k);
+    }
+
+    /** 精确检索（禁用索引扫描，顺序扫描 + 全精度 top-N 排序），作为召回率评估的基准 */
+    @Transactional(readOnly = true)
+    public List<VectorMatch> searchExact(String userId, float[] query, int k) {
+        return searchBruteForce(VectorStorage.FULL, userId, query, k);
+    }
+
+    /**
+     * 不走索引，按给定表示取候选并全精度重排：与 {@link #searchExact} 对比即为该表示本身（不含 ANN 近似）的量化损失。
+     */
+    @Transactional(readOnly = true)
+    public List<VectorMatch> searchBruteForce(VectorStorage s, String userId, float[] query, int k) {
+        jdbc.queryForList("SELECT set_config('enable_indexscan', 'off', true), set_config('enable_bitmapscan', 'off', true)", Map.of());
+        return nearest(s, userId, query, k);
+    }
+
+    public VectorStorage storage() {
+        return storage;
+    }
+
+    public int rerankFactor() {
+        return Math.max(1, rerankFactor);
+    }
+
+    /**
+     * 返回 (id, dist) 的 ANN 子查询（当前表示），供组合进更大的 SQL；参数由 {@link #bindAnnParams} 绑定，:userId / :k 由调用方绑定。
+     */
+    public String annSubquery(String queryParam) {
+        return annSubquery(storage, queryParam);
+    }
+
+    public MapSqlParameterSource bindAnnParams(MapSqlParameterSource params, String queryParam, float[] query, int k) {
+        return bindAnnParams(storage, params, queryParam, query, k);
+    }
+
+    private MapSqlParameterSource bindAnnParams(VectorStorage s, MapSqlParameterSource params, String queryParam, float[] query, int k) {
+        return params.addValue(queryParam, PgVectorCodec.param(query))
+                .addValue("candidates", candidates(s, k))
+                .addValue("includeStale", "include".equalsIgnoreCase(staleVectors))
+                .addValue("modelVersion", embeddingVersion.current());
+    }
+
+    private String annSubquery(VectorStorage s, String queryParam) {
+        String template = s.compact() ? ANN_RERANK : ANN_FULL;
+        return template.replace("{filter}", ANN_FILTER)
+                .replace("{compactDist}", s.distance(queryParam, dimension))
+                .replace("{dist}", VectorStorage.FULL.distance(queryParam, dimension));
+    }
+
+    private int candidates(VectorStorage s, int k) {
+        return s.compact() ? k * Math.max(1, rerankFactor) : k;
+    }
+
+    public void useIndex(String method, int lists) {
+        this.indexMethod = method;
+        this.ivfflatLists = lists;
+    }
+
+    /** 当前 k 下实际使用的扫描参数 */
+    public Map<String, Object> searchSettings(int k) {
+        int width = candidates(storage, k);
+        return Map.of("storage", storage.name().toLowerCase(), "index", indexMethod, "lists", ivfflatLists,
+                "candidates", width, "probes", probesFor(width), "efSearch", efSearchFor(width));
+    }
+
+    private List<VectorMatch> nearest(VectorStorage s, String userId, float[] query, int k) {
+        var params = bindAnnParams(s, new MapSqlParameterSource()
+                .addValue("userId", userId)
+                .addValue("k", k), "q", query, k);
+        return jdbc.query(nearestSql.get(s), params, (rs, i) -> new VectorMatch(rs.getString("id"), rs.getDouble("score")));
+    }
+
+    // set_config(..., true) 等价于 SET LOCAL：仅对当前事务生效；一次往返设置全部参数
+    private void applySearchSettings(int k) {
+        var params = new MapSqlParameterSource();
+        jdbc.queryForList(searchSettingsStatement(k, params), params);
+    }
+
+    /**
+     * 按 k 设置 probes / ef_search / 迭代扫描的 SELECT 语句（参数写入 params），
+     * 供需要把设置与查询放进同一次调用的场景使用；须在事务内执行。
+     */
+    public String searchSettingsStatement(int k, MapSqlParameterSource params) {
+        // 紧凑表示下索引需要返回 candidates 个候选，扫描宽度按候选数计算
+        int width = candidates(storage, k);
+        params.addValue("probes", String.valueOf(probesFor(width)))
+                .addValue("ef", String.valueOf(efSearchFor(width)));
+        String sql = "SELECT set_config('ivfflat.probes', :probes, true), set_config('hnsw.ef_search', :ef, true)";
+        if (!"off".equalsIgnoreCase(iterativeScan) && supportsIterativeScan()) {
+            // ivfflat 只支持 relaxed_order
+            sql += ", set_config('hnsw.iterative_scan', :mode, true), set_config('ivfflat.iterative_scan', 'relaxed_order', true)";
+            params.addValue("mode", iterativeScan);
+        }
+        return sql;
+    }
+
+    private int probesFor(int k) {
+        int lists = ivfflatLists;
+        if (lists <= 0) return Math.max(1, probesMin);
+        int probes = (int) Math.ceil(Math.sqrt(lists) * Math.max(1.0, k / 10.0));
+        return Math.min(lists, Math.max(probesMin, probes));
+    }
+
+    // pgvector 上限 1000
+    private int efSearchFor(int k) {
+        return Math.min(1000, Math.max(efSearchMin, k * efSearchPerK));
+    }
+
+    private boolean supportsIterativeScan() {
+        Boolean supported = iterativeScanSupported;
+        if (supported == null) {
+            List<String> versions = jdbc.queryForList(
+                    "SELECT extversion FROM pg_extension WHERE extname = 'vector'", Map.of(), String.class);
+            supported = !versions.isEmpty() && atLeast(versions.get(0), 0, 8);
+            if (!supported) log.info("pgvector {} has no iterative index scans; user-filtered ANN may return fewer than k rows", versions);
+            iterativeScanSupported = supported;
+        }
+        return supported;
+    }
+
+    private static boolean atLeast(String version, int major, int minor) {
+        String[] parts = version.split("\\.");
+        try {
+            int ma = Integer.parseInt(parts[0]);
+            int mi = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return ma > major || (ma == major && mi >= minor);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public record VectorMatch(String id, double score) {}
+
+    public record EmbeddingUpdate(String id, String userId, float[] vector, String text) {}
+
+    public record BackfillUpdate(String id, String title, String description, String text, float[] vector) {}
+}
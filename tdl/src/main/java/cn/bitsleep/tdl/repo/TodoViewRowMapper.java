@@ -0,0 +1,51 @@
+package cn.bitsleep.tdl.repo;
+
+import cn.bitsleep.tdl.domain.TodoStatus;
+import cn.bitsleep.tdl.dto.TodoView;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+
+/**
+ * JDBC 查询直接映射为 {@link TodoView}（不经过 Hibernate）。
+ * 需要查询返回 {@link #COLUMNS} 中的列；embedding / text / metadata 体积大且接口不返回，故不读取。
+ */
+public final class TodoViewRowMapper implements RowMapper<TodoView> {
+
+    public static final TodoViewRowMapper INSTANCE = new TodoViewRowMapper();
+
+    /** 以 ti 为表别名的列清单 */
+    public static final String COLUMNS = """
+            ti.id, ti.title, ti.description, ti.priority_score, ti.priority_label,
+            ti.category_id, ti.priority_level_id, ti.status, ti.trash_purge_at,
+            ti.created_at, ti.updated_at, ti.version""";
+
+    private TodoViewRowMapper() {
+    }
+
+    @Override
+    public TodoView mapRow(ResultSet rs, int rowNum) throws SQLException {
+        int status = rs.getInt("status");
+        return new TodoView(
+                rs.getString("id"),
+                rs.getString("title"),
+                rs.getString("description"),
+                rs.getBigDecimal("priority_score"),
+                rs.getString("priority_label"),
+                rs.getString("category_id"),
+                rs.getString("priority_level_id"),
+                status,
+                TodoStatus.fromCode(status),
+                instant(rs.getTimestamp("trash_purge_at")),
+                instant(rs.getTimestamp("created_at")),
+                instant(rs.getTimestamp("updated_at")),
+                rs.getLong("version"));
+    }
+
+    private static Instant instant(Timestamp ts) {
+        return ts == null ? null : ts.toInstant();
+    }
+}
@@ -0,0 +1,49 @@
+package cn.bitsleep.tdl.repo;
+
+/**
+ * ANN 索引使用的向量表示（embedding 列始终保存 fp32 全精度，用于重排）：
+ * FULL - 直接索引 vector（每维 4 字节）；
+ * HALFVEC - 表达式索引 CAST(embedding AS halfvec(N))（每维 2 字节，需 pgvector >= 0.7）；
+ * BINARY - 表达式索引 binary_quantize(embedding)::bit(N)（每维 1 bit，汉明距离，需 pgvector >= 0.7）。
+ * 紧凑表示先取 k * rerank-factor 个候选，再按全精度余弦距离重排取前 k。
+ */
+public enum VectorStorage {
+    FULL, HALFVEC, BINARY;
+
+    public static VectorStorage of(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+
+    /** 从 pg_get_indexdef 的输出识别已有索引使用的表示 */
+    public static VectorStorage fromIndexDefinition(String def) {
+        if (def.contains("binary_quantize")) return BINARY;
+        if (def.contains("halfvec")) return HALFVEC;
+        return FULL;
+    }
+
+    public boolean compact() {
+        return this != FULL;
+    }
+
+    /** 建索引用的列定义（表达式 + operator class） */
+    public String indexColumn(int dims) {
+        return switch (this) {
+            case FULL -> "embedding vector_cosine_ops";
+            case HALFVEC -> "(CAST(embedding AS halfvec(" + dims + "))) halfvec_cosine_ops";
+            case BINARY -> "(CAST(binary_quantize(embedding) AS bit(" + dims + "))) bit_hamming_ops";
+        };
+    }
+
+    /**
+     * 与索引表达式一致的距离表达式（表达式不一致时 planner 不会使用索引）。
+     * 查询参数以 float4[] 绑定，见 {@link PgVectorCodec}。
+     */
+    public String distance(String queryParam, int dims) {
+        String q = PgVectorCodec.sql(queryParam);
+        return switch (this) {
+            case FULL -> "embedding <=> " + q;
+            case HALFVEC -> "CAST(embedding AS halfvec(" + dims + ")) <=> CAST(CAST(:" + queryParam + " AS real[]) AS halfvec(" + dims + "))";
+            case BINARY -> "CAST(binary_quantize(embedding) AS bit(" + dims + ")) <~> CAST(binary_quantize(" + q + ") AS bit(" + dims + "))";
+        };
+    }
+}
@@ -13,6 +13,8 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class CategoryService {
     private final CategoryRepository repo;
+    private final FacetCounters facetCounters;
+    private final ChangeVersions changeVersions;
 
     public List<Category> list(String userId) { return repo.findByUserIdOrderByNameAsc(userId); }
 
@@ -24,6 +26,7 @@ public class CategoryService {
                 .name(name)
                 .color(color)
                 .build();
+        changeVersions.bump(userId);
         return repo.save(c);
     }
 
@@ -34,6 +37,7 @@ public class CategoryService {
         c.setName(newName);
         c.setColor(color);
         repo.save(c);
+        changeVersions.bump(userId);
     }
 
     @Transactional
@@ -41,5 +45,7 @@ public class CategoryService {
         Category c = repo.findById(id).orElseThrow();
         if (!c.getUserId().equals(userId)) throw new IllegalArgumentException("Forbidden");
         repo.delete(c); // todo_item.category_id 将被置空
+        facetCounters.rebuildAfterCommit(userId); // 原分类下的条目计入“未分类”
+        changeVersions.bump(userId);
     }
 }
@@ -0,0 +1,39 @@
+package cn.bitsleep.tdl.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * 增量同步令牌：已下发到的 (时间, id) 水位线，编码为不透明的 base64url 字符串。
+ * 条目按 (updated_at, id)、墓碑按 (deleted_at, todo_id) 与之比较。
+ */
+public record ChangeToken(Instant at, String id) implements Comparable<ChangeToken> {
+
+    private static final String VERSION = "c1";
+
+    public static ChangeToken decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 3);
+            if (parts.length != 3 || !VERSION.equals(parts[0])) throw new InvalidCursorException("Unsupported change token");
+            return new ChangeToken(Instant.parse(parts[1]), parts[2]);
+        } catch (InvalidCursorException e) {
+            throw e;
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new InvalidCursorException("Malformed change token");
+        }
+    }
+
+    public String encode() {
+        String raw = String.join("|", VERSION, at.toString(), id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public int compareTo(ChangeToken o) {
+        int c = at.compareTo(o.at);
+        return c != 0 ? c : id.compareTo(o.id);
+    }
+}
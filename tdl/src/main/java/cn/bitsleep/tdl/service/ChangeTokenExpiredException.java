@@ -0,0 +1,11 @@
+package cn.bitsleep.tdl.service;
+
+/**
+ * 同步令牌早于墓碑保留期，期间的删除可能已无记录，客户端需全量重新同步。
+ */
+public class ChangeTokenExpiredException extends RuntimeException {
+
+    public ChangeTokenExpiredException(String message) {
+        super(message);
+    }
+}
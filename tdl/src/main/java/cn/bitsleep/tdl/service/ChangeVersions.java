@@ -0,0 +1,230 @@
+package cn.bitsleep.tdl.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 每用户的变更版本号：该用户的待办、优先级、分类、标签任一变化时在事务提交后 +1。
+ * 列表首页缓存以它作为缓存键的一部分，条件 GET 以它生成 ETag，校验只需读一次版本号。
+ * 向量写回只影响搜索结果，递增单独的搜索计数（bumpSearch），不使列表、计数、配置的 ETag 与首页缓存失效。
+ * <p>
+ * 版本号存于 Redis 哈希（tdl:todo:version:&lt;user&gt;，字段 epoch / n / s）而非数据库。
+ * epoch 为首次读写时生成的随机值：Redis 被清空或键过期后计数从 0 重新开始，但 epoch 随之改变，
+ * 之前下发的 ETag 与缓存键不会再与新计数撞上。对外的版本号为 "epoch.n"，搜索为 "epoch.n.s"。
+ * <p>
+ * current() 在 version-ttl-ms 内复用读到的值，首页缓存因此可能在这段时间内返回其他节点写入前的页（本节点的写入立即可见）；staleness 指标记录这一窗口的实际情况。
+ * ETag 校验使用 fresh()，每次读 Redis，不受这一窗口影响。
+ * 本节点记住的版本号在同一 epoch 内只增不减。
+ * <p>
+ * 递增发生在写请求线程上（提交后一次同步 HINCRBY）。递增失败的用户记入 pending，由 retryPending 重试直到成功；
+ * 在此之前本节点对该用户跳过首页缓存与 ETag 校验（其他节点要等重试成功后才能看到新版本号）。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ChangeVersions {
+
+    private final RedissonClient redissonClient;
+
+    @Value("${tdl.list-cache.version-ttl-ms:1000}")
+    private long versionTtlMs;
+
+    private static final String VERSION_PREFIX = "tdl:todo:version:";
+    private static final String MAIN = "n";
+    private static final String SEARCH = "s";
+
+    // 读取（ARGV[2] 为空）或递增一个计数（ARGV[2] = n / s）；epoch 不存在时以 ARGV[1] 初始化。返回 {epoch, n, s}
+    private static final String READ_OR_BUMP = """
+            if redis.call('hexists', KEYS[1], 'epoch') == 0 then
+              redis.call('hset', KEYS[1], 'epoch', ARGV[1])
+            end
+            if ARGV[2] ~= '' then redis.call('hincrby', KEYS[1], ARGV[2], 1) end
+            local v = redis.call('hmget', KEYS[1], 'epoch', 'n', 's')
+            return {v[1], v[2] or '0', v[3] or '0'}
+            """;
+
+    private final Map<String, NearVersion> versions = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> bumpFailureListeners = new CopyOnWriteArrayList<>();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder bumps = new LongAdder();
+    private final LongAdder bumpFailures = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder staleRefreshes = new LongAdder();
+    private final AtomicLong maxStaleMs = new AtomicLong();
+    private final LongAdder totalStaleMs = new LongAdder();
+
+    /** 当前版本号（可能复用 version-ttl-ms 内读到的值）；Redis 不可用时抛出，调用方按未缓存处理 */
+    public String current(String userId) {
+        NearVersion near = versions.get(userId);
+        if (near != null && System.nanoTime() - near.fetchedAt() < TimeUnit.MILLISECONDS.toNanos(versionTtlMs)) {
+            return near.version().token();
+        }
+        return fresh(userId);
+    }
+
+    /**
+     * 直接从 Redis 读取版本号（一次脚本调用），不复用本地值；读到的值同时刷新本地版本，
+     * 同一请求随后的 current() 不会返回更旧的版本。
+     */
+    public String fresh(String userId) {
+        return read(userId).token();
+    }
+
+    /** 同 fresh()，另含搜索计数：内容或向量任一变化都会改变 */
+    public String freshSearch(String userId) {
+        return read(userId).searchToken();
+    }
+
+    /** 该用户的数据已变化：当前事务提交后版本号 +1（无事务时立即执行） */
+    public void bump(String userId) {
+        afterCommit(() -> increment(userId, MAIN));
+    }
+
+    /** 该用户的向量已变化：当前事务提交后搜索计数 +1，其余 ETag 与首页缓存不受影响 */
+    public void bumpSearch(String userId) {
+        afterCommit(() -> increment(userId, SEARCH));
+    }
+
+    /** 该用户有未成功的递增：依赖版本号的缓存与 ETag 不可信，应直接读库 */
+    public boolean isPending(String userId) {
+        return pending.contains(userId);
+    }
+
+    // 逐个重试失败的递增；Redis 仍不可用时本轮放弃。
+    // 重试总是递增主计数：搜索版本号包含它，失败的是哪个计数都能覆盖
+    @Scheduled(fixedDelayString = "${tdl.list-cache.bump-retry-ms:1000}")
+    public void retryPending() {
+        for (String userId : pending) {
+            if (!tryIncrement(userId, MAIN)) return;
+        }
+    }
+
+    /** 版本号递增失败时回调（参数为 userId），供本节点清理依赖旧版本的数据 */
+    public void onBumpFailure(Consumer<String> listener) {
+        bumpFailureListeners.add(listener);
+    }
+
+    public Map<String, Object> stats() {
+        long stale = staleRefreshes.sum();
+        long refreshed = refreshes.sum();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("trackedUsers", versions.size());
+        out.put("bumps", bumps.sum());
+        out.put("bumpFailures", bumpFailures.sum());
+        out.put("pendingUsers", pending.size());
+        out.put("refreshes", refreshed);
+        // 刷新版本号时发现本地版本已落后（期间可能返回过旧数据或 304）的次数，及本地版本的持有时长
+        out.put("staleRefreshes", stale);
+        out.put("staleRatio", refreshed == 0 ? 0.0 : Math.round(stale * 1000.0 / refreshed) / 1000.0);
+        out.put("avgStaleMs", stale == 0 ? 0 : totalStaleMs.sum() / stale);
+        out.put("maxStaleMs", maxStaleMs.get());
+        return out;
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private Version read(String userId) {
+        long now = System.nanoTime();
+        NearVersion near = versions.get(userId);
+        Version current = eval(userId, "");
+        refreshes.increment();
+        if (near != null && current.isNewerThan(near.version())) {
+            long ageMs = (now - near.fetchedAt()) / 1_000_000;
+            staleRefreshes.increment();
+            totalStaleMs.add(ageMs);
+            maxStaleMs.accumulateAndGet(ageMs, Math::max);
+        }
+        return remember(userId, new NearVersion(current, now));
+    }
+
+    private void increment(String userId, String counter) {
+        if (tryIncrement(userId, counter)) return;
+        bumpFailures.increment();
+        // 搜索计数失败不影响首页缓存，只需 pending 让搜索 ETag 暂停校验
+        if (MAIN.equals(counter)) bumpFailureListeners.forEach(l -> l.accept(userId));
+    }
+
+    private boolean tryIncrement(String userId, String counter) {
+        try {
+            Version v = eval(userId, counter);
+            // 本节点立即使用新版本（读己之写）
+            remember(userId, new NearVersion(v, System.nanoTime()));
+            bumps.increment();
+            pending.remove(userId);
+            return true;
+        } catch (Exception e) {
+            // 先记入 pending 再清掉本地版本，读路径不会在两者之间命中旧版本
+            pending.add(userId);
+            versions.remove(userId);
+            log.warn("Change version bump failed for user {}", userId, e);
+            return false;
+        }
+    }
+
+    private Version eval(String userId, String counter) {
+        String epoch = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+        List<Object> r = redissonClient.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE, READ_OR_BUMP,
+                RScript.ReturnType.MULTI, List.<Object>of(VERSION_PREFIX + userId), epoch, counter);
+        return new Version((String) r.get(0), Long.parseLong((String) r.get(1)), Long.parseLong((String) r.get(2)));
+    }
+
+    // 并发的读取与递增可能乱序到达：同一 epoch 内各计数取较大值；epoch 变化（Redis 被清空）时以新读到的为准
+    private Version remember(String userId, NearVersion v) {
+        return versions.merge(userId, v, (old, cur) -> {
+            Version o = old.version();
+            Version c = cur.version();
+            if (!o.epoch().equals(c.epoch())) return cur;
+            return new NearVersion(new Version(c.epoch(), Math.max(o.main(), c.main()), Math.max(o.search(), c.search())),
+                    cur.fetchedAt());
+        }).version();
+    }
+
+    private record Version(String epoch, long main, long search) {
+
+        String token() {
+            return epoch + '.' + main;
+        }
+
+        String searchToken() {
+            return epoch + '.' + main + '.' + search;
+        }
+
+        boolean isNewerThan(Version other) {
+            return !epoch.equals(other.epoch) || main > other.main || search > other.search;
+        }
+    }
+
+    private record NearVersion(Version version, long fetchedAt) {}
+}
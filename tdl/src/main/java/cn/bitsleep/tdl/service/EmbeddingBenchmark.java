@@ -0,0 +1,235 @@
+package cn.bitsleep.tdl.service;
+
+import cn.bitsleep.tdl.config.EmbeddingModels;
+import cn.bitsleep.tdl.worker.InferencePool;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 嵌入模型变体对比（运维接口触发）：吞吐、单条延迟、加载内存，以及在内置评测集（eval/search-eval.json）上的
+ * 检索质量（recall@k / MRR）和与 fp32 的一致性（向量余弦、top-k 重合度）。
+ * 每个变体在本次运行中加载、测完即关闭，不在进程内缓存。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class EmbeddingBenchmark {
+
+    private final InferencePool inferencePool;
+
+    @Value("${tdl.embedding.model:fp32}")
+    private String activeVariant;
+
+    @Value("${tdl.embedding.model-path:}")
+    private String modelPath;
+
+    @Value("${tdl.embedding.tokenizer-path:}")
+    private String tokenizerPath;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String EVAL_SET = "eval/search-eval.json";
+
+    public synchronized Map<String, Object> run(List<String> variants, int rounds, int k) throws IOException {
+        EvalSet eval = MAPPER.readValue(new ClassPathResource(EVAL_SET).getInputStream(), EvalSet.class);
+        List<TextSegment> docs = eval.docs().stream().map(d -> TextSegment.from(d.text())).toList();
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("activeVariant", activeVariant);
+        out.put("docs", docs.size());
+        out.put("queries", eval.queries().size());
+        out.put("rounds", rounds);
+        out.put("k", k);
+
+        Map<String, List<float[]>> docVectors = new LinkedHashMap<>();
+        Map<String, List<List<String>>> rankings = new LinkedHashMap<>();
+        Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+        for (String variant : variants) {
+            Map<String, Object> r = new LinkedHashMap<>();
+            EmbeddingModel model = load(variant, r);
+            try {
+                r.put("throughput", throughput(model, docs, rounds));
+                r.put("latency", latency(model, eval.queries(), rounds));
+
+                List<float[]> dv = vectors(model.embedAll(docs).content());
+                List<List<String>> ranked = new ArrayList<>();
+                for (EvalQuery q : eval.queries()) {
+                    ranked.add(rank(model.embed(q.q()).content().vector(), dv, eval.docs()));
+                }
+                r.put("quality", quality(eval.queries(), ranked, k));
+                docVectors.put(variant, dv);
+                rankings.put(variant, ranked);
+                results.put(variant, r);
+            } finally {
+                close(variant, model);
+            }
+        }
+
+        // 与 fp32 的一致性：同一文本两种变体向量的余弦相似度，以及每个查询 top-k 的重合比例
+        if (docVectors.containsKey(EmbeddingModels.FP32)) {
+            List<float[]> base = docVectors.get(EmbeddingModels.FP32);
+            for (String variant : docVectors.keySet()) {
+                if (variant.equals(EmbeddingModels.FP32)) continue;
+                List<float[]> other = docVectors.get(variant);
+                double cos = 0;
+                for (int i = 0; i < base.size(); i++) cos += cosine(base.get(i), other.get(i));
+                double overlap = 0;
+                List<List<String>> a = rankings.get(EmbeddingModels.FP32);
+                List<List<String>> b = rankings.get(variant);
+                for (int i = 0; i < a.size(); i++) {
+                    Set<String> topA = new HashSet<>(a.get(i).subList(0, Math.min(k, a.get(i).size())));
+                    overlap += b.get(i).subList(0, Math.min(k, b.get(i).size())).stream().filter(topA::contains).count() / (double) k;
+                }
+                Map<String, Object> agreement = new LinkedHashMap<>();
+                agreement.put("meanCosineToFp32", round(cos / base.size()));
+                agreement.put("topKOverlapWithFp32", round(overlap / a.size()));
+                results.get(variant).put("agreement", agreement);
+            }
+        }
+        out.put("results", results);
+        log.info("Embedding benchmark: {}", results);
+        return out;
+    }
+
+    // 加载内存按进程 RSS 的增量估算（ONNX Runtime 的权重在堆外，不触发 GC，堆增量没有参考价值）；
+    // 内置变体的权重按类共享，当前生效的变体已在启动时加载，增量接近 0
+    private EmbeddingModel load(String variant, Map<String, Object> result) {
+        long rssBefore = rssBytes();
+        long start = System.nanoTime();
+        EmbeddingModel model = EmbeddingModels.create(variant, modelPath, tokenizerPath, inferencePool);
+        model.embed("warm up"); // 首次推理才真正初始化部分 session 资源
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("loadMs", (System.nanoTime() - start) / 1_000_000);
+        stats.put("rssDeltaMb", rssBefore < 0 ? "n/a" : round((rssBytes() - rssBefore) / 1048576.0));
+        stats.put("alreadyLoadedByApp", variant.equalsIgnoreCase(activeVariant));
+        result.put("load", stats);
+        return model;
+    }
+
+    // 持有 ONNX session 的实现可关闭时立即释放；否则在返回后随引用一起回收
+    private static void close(String variant, EmbeddingModel model) {
+        if (!(model instanceof AutoCloseable closeable)) return;
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            log.warn("Closing benchmark model {} failed", variant, e);
+        }
+    }
+
+    private static Map<String, Object> throughput(EmbeddingModel model, List<TextSegment> docs, int rounds) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) model.embedAll(docs);
+        long nanos = Math.max(1, System.nanoTime() - start);
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("texts", (long) docs.size() * rounds);
+        out.put("textsPerSec", round((double) docs.size() * rounds * 1_000_000_000L / nanos));
+        return out;
+    }
+
+    private static Map<String, Object> latency(EmbeddingModel model, List<EvalQuery> queries, int rounds) {
+        long[] nanos = new long[queries.size() * rounds];
+        int n = 0;
+        for (int i = 0; i < rounds; i++) {
+            for (EvalQuery q : queries) {
+                long start = System.nanoTime();
+                model.embed(q.q());
+                nanos[n++] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(nanos);
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("p50Ms", round(nanos[(int) (nanos.length * 0.50)] / 1_000_000.0));
+        out.put("p95Ms", round(nanos[Math.min(nanos.length - 1, (int) (nanos.length * 0.95))] / 1_000_000.0));
+        return out;
+    }
+
+    private static Map<String, Object> quality(List<EvalQuery> queries, List<List<String>> ranked, int k) {
+        double recall = 0;
+        double mrr = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            Set<String> relevant = new HashSet<>(queries.get(i).relevant());
+            List<String> ids = ranked.get(i);
+            long hits = ids.subList(0, Math.min(k, ids.size())).stream().filter(relevant::contains).count();
+            recall += (double) hits / relevant.size();
+            for (int r = 0; r < ids.size(); r++) {
+                if (relevant.contains(ids.get(r))) {
+                    mrr += 1.0 / (r + 1);
+                    break;
+                }
+            }
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("recallAtK", round(recall / queries.size()));
+        out.put("mrr", round(mrr / queries.size()));
+        return out;
+    }
+
+    private static List<String> rank(float[] query, List<float[]> docVectors, List<EvalDoc> docs) {
+        Integer[] order = new Integer[docs.size()];
+        double[] scores = new double[docs.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            scores[i] = cosine(query, docVectors.get(i));
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+        return Arrays.stream(order).map(i -> docs.get(i).id()).toList();
+    }
+
+    private static List<float[]> vectors(List<Embedding> embeddings) {
+        return embeddings.stream().map(Embedding::vector).toList();
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return dot / (Math.sqrt(na) * Math.sqrt(nb));
+    }
+
+    // Linux：/proc/self/status 中的 VmRSS（kB）；其他平台返回 -1
+    private static long rssBytes() {
+        Path status = Path.of("/proc/self/status");
+        if (!Files.isReadable(status)) return -1;
+        try (InputStream in = Files.newInputStream(status)) {
+            for (String line : new String(in.readAllBytes()).split("\n")) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.debug("Cannot read RSS", e);
+        }
+        return -1;
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 1000) / 1000.0;
+    }
+
+    record EvalSet(List<EvalDoc> docs, List<EvalQuery> queries) {}
+
+    record EvalDoc(String id, String text) {}
+
+    record EvalQuery(String q, List<String> relevant) {}
+}
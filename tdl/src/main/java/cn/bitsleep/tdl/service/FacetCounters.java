@@ -0,0 +1,248 @@
+package cn.bitsleep.tdl.service;
+
+import cn.bitsleep.tdl.domain.TodoStatus;
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 每用户的侧边栏计数（todo_facet_count）：按状态、分类、优先级、标签计数，写路径上增量维护。
+ * 分类 / 优先级 / 标签只统计未进回收站的条目；未设置分类或优先级的计入空 key。
+ * <p>
+ * 增量方式：写操作前后各取一次该条目的归属（状态、分类、优先级、标签），只对差值做 upsert，
+ * 因此各写路径不需要各自推算影响了哪些计数。取“写前”快照前先对该条目行加 FOR UPDATE 锁，
+ * 同一条目的并发写按顺序各自看到对方的结果，不会重复扣减同一旧值。
+ * 写路径持有该用户的共享 advisory 锁，全量重建持有排他锁，二者不会交错；
+ * 加锁顺序统一为 advisory 锁在前、行锁在后。重建时写入标记行，读到没有标记行的用户时先重建一次。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FacetCounters {
+
+    public static final String STATUS = "status";
+    public static final String CATEGORY = "category";
+    public static final String PRIORITY_LEVEL = "priorityLevel";
+    public static final String TAG = "tag";
+    private static final String MARKER = "_";
+
+    private final JdbcTemplate jdbc;
+    private final EntityManager entityManager;
+    private final TransactionTemplate tx;
+
+    // 嵌套的 track（如 updateContent 内调用 setTagsForTodo）只由最外层计算差值
+    private final ThreadLocal<Integer> depth = ThreadLocal.withInitial(() -> 0);
+
+    private static final String LOCK_SHARED = "SELECT pg_advisory_xact_lock_shared(hashtext(?))";
+    private static final String LOCK_EXCLUSIVE = "SELECT pg_advisory_xact_lock(hashtext(?))";
+    private static final String LOCK_ROW = "SELECT id FROM todo_item WHERE id = ? AND user_id = ? FOR UPDATE";
+
+    private static final String SNAPSHOT = """
+            SELECT t.status, t.category_id, t.priority_level_id,
+                   array_remove(array_agg(tt.tag_id), NULL) AS tags
+            FROM todo_item t
+            LEFT JOIN todo_tag tt ON tt.todo_id = t.id
+            WHERE t.id = ? AND t.user_id = ?
+            GROUP BY t.id
+            """;
+
+    private static final String UPSERT = """
+            INSERT INTO todo_facet_count (user_id, facet, key, count) VALUES (?, ?, ?, ?)
+            ON CONFLICT (user_id, facet, key) DO UPDATE SET count = todo_facet_count.count + EXCLUDED.count
+            """;
+
+    // 与 contributions() 的规则一致
+    private static final String AGGREGATE = """
+            SELECT 'status' AS facet, status::text AS key, count(*) AS count
+            FROM todo_item WHERE user_id = ? GROUP BY status
+            UNION ALL
+            SELECT 'category', coalesce(category_id, ''), count(*)
+            FROM todo_item WHERE user_id = ? AND status <> 2 GROUP BY category_id
+            UNION ALL
+            SELECT 'priorityLevel', coalesce(priority_level_id, ''), count(*)
+            FROM todo_item WHERE user_id = ? AND status <> 2 GROUP BY priority_level_id
+            UNION ALL
+            SELECT 'tag', tt.tag_id, count(*)
+            FROM todo_tag tt JOIN todo_item t ON t.id = tt.todo_id
+            WHERE t.user_id = ? AND t.status <> 2 GROUP BY tt.tag_id
+            """;
+
+    private static final String STORED = "SELECT facet, key, count FROM todo_facet_count WHERE user_id = ?";
+
+    /** 对单个条目的写操作维护计数；须在写操作所在事务内调用 */
+    public void track(String userId, String todoId, Runnable write) {
+        if (depth.get() > 0) {
+            runNested(write);
+            return;
+        }
+        jdbc.queryForList(LOCK_SHARED, userId);
+        // 行锁保证并发写同一条目时，后到者的“写前”快照是前者提交后的状态（新建的条目尚无行，不受影响）
+        jdbc.queryForList(LOCK_ROW, String.class, todoId, userId);
+        Map<Key, Integer> before = contributions(snapshot(userId, todoId));
+        runNested(write);
+        Map<Key, Integer> after = contributions(snapshot(userId, todoId));
+        Map<Key, Integer> delta = new TreeMap<>();
+        after.forEach((k, v) -> delta.merge(k, v, Integer::sum));
+        before.forEach((k, v) -> delta.merge(k, -v, Integer::sum));
+        delta.values().removeIf(v -> v == 0);
+        apply(userId, delta);
+    }
+
+    /** 回收站清理等批量删除：按状态直接扣减 */
+    public void subtract(String userId, TodoStatus status, int n) {
+        if (n <= 0) return;
+        jdbc.queryForList(LOCK_SHARED, userId);
+        apply(userId, Map.of(new Key(STATUS, Integer.toString(status.code)), -n));
+    }
+
+    /** 删除标签后移除对应计数行 */
+    public void dropKey(String userId, String facet, String key) {
+        jdbc.queryForList(LOCK_SHARED, userId);
+        jdbc.update("DELETE FROM todo_facet_count WHERE user_id = ? AND facet = ? AND key = ?", userId, facet, key);
+    }
+
+    /** 读取计数（每用户行数只与分类 / 优先级 / 标签数量相关，与条目数无关） */
+    @Transactional
+    public Map<String, Map<String, Long>> facets(String userId) {
+        List<Map<String, Object>> rows = jdbc.queryForList(STORED, userId);
+        if (rows.stream().noneMatch(r -> MARKER.equals(r.get("facet")))) {
+            rebuild(userId);
+            rows = jdbc.queryForList(STORED, userId);
+        }
+        Map<String, Map<String, Long>> out = new LinkedHashMap<>();
+        for (String facet : List.of(STATUS, CATEGORY, PRIORITY_LEVEL, TAG)) out.put(facet, new LinkedHashMap<>());
+        for (Map<String, Object> r : rows) {
+            Map<String, Long> byKey = out.get((String) r.get("facet"));
+            long count = ((Number) r.get("count")).longValue();
+            if (byKey == null || count <= 0) continue;
+            String key = (String) r.get("key");
+            if (STATUS.equals(r.get("facet"))) key = TodoStatus.fromCode(Integer.parseInt(key)).name();
+            byKey.put(key, count);
+        }
+        return out;
+    }
+
+    /**
+     * 当前事务提交后在新事务中重建。用于删除分类 / 优先级：外键 SET NULL 已对条目行加锁，
+     * 此时再等待排他锁会与持有共享锁、等待这些行的写操作互相等待。提交前计数短暂滞后；重建失败时由 FacetReconciler 校正。
+     */
+    public void rebuildAfterCommit(String userId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            rebuildInNewTransaction(userId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                rebuildInNewTransaction(userId);
+            }
+        });
+    }
+
+    /**
+     * 按 todo_item / todo_tag 重新计算该用户的全部计数，返回与已存计数不一致的 key 数。
+     */
+    @Transactional
+    public int rebuild(String userId) {
+        entityManager.flush();
+        jdbc.queryForList(LOCK_EXCLUSIVE, userId);
+        Map<Key, Long> fresh = new HashMap<>();
+        jdbc.query(AGGREGATE, rs -> {
+            fresh.put(new Key(rs.getString("facet"), rs.getString("key")), rs.getLong("count"));
+        }, userId, userId, userId, userId);
+        Map<Key, Long> stored = new HashMap<>();
+        jdbc.query(STORED, rs -> {
+            if (!MARKER.equals(rs.getString("facet"))) {
+                stored.put(new Key(rs.getString("facet"), rs.getString("key")), rs.getLong("count"));
+            }
+        }, userId);
+        stored.values().removeIf(v -> v == 0);
+
+        int drift = 0;
+        for (Key k : fresh.keySet()) if (!fresh.get(k).equals(stored.get(k))) drift++;
+        for (Key k : stored.keySet()) if (!fresh.containsKey(k)) drift++;
+
+        jdbc.update("DELETE FROM todo_facet_count WHERE user_id = ?", userId);
+        List<Object[]> rows = new ArrayList<>(fresh.size() + 1);
+        rows.add(new Object[]{userId, MARKER, "", 0L});
+        fresh.forEach((k, v) -> rows.add(new Object[]{userId, k.facet(), k.key(), v}));
+        jdbc.batchUpdate(UPSERT, rows);
+        return drift;
+    }
+
+    private void rebuildInNewTransaction(String userId) {
+        try {
+            TransactionTemplate requiresNew = new TransactionTemplate(tx.getTransactionManager());
+            requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            requiresNew.executeWithoutResult(status -> rebuild(userId));
+        } catch (Exception e) {
+            log.warn("Facet rebuild after commit failed for user {}, left to the reconciler", userId, e);
+        }
+    }
+
+    private void runNested(Runnable write) {
+        depth.set(depth.get() + 1);
+        try {
+            write.run();
+        } finally {
+            int d = depth.get() - 1;
+            if (d == 0) depth.remove(); else depth.set(d);
+        }
+    }
+
+    private Snapshot snapshot(String userId, String todoId) {
+        // 写操作可能还停留在 Hibernate 会话中
+        entityManager.flush();
+        List<Snapshot> rows = jdbc.query(SNAPSHOT, (rs, i) -> {
+            Array tags = rs.getArray("tags");
+            return new Snapshot(rs.getInt("status"), rs.getString("category_id"), rs.getString("priority_level_id"),
+                    tags == null ? new String[0] : (String[]) tags.getArray());
+        }, todoId, userId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    private static Map<Key, Integer> contributions(Snapshot s) {
+        Map<Key, Integer> out = new HashMap<>();
+        if (s == null) return out;
+        out.put(new Key(STATUS, Integer.toString(s.status())), 1);
+        if (s.status() != TodoStatus.TRASHED.code) {
+            out.put(new Key(CATEGORY, s.categoryId() == null ? "" : s.categoryId()), 1);
+            out.put(new Key(PRIORITY_LEVEL, s.priorityLevelId() == null ? "" : s.priorityLevelId()), 1);
+            for (String tag : s.tags()) out.put(new Key(TAG, tag), 1);
+        }
+        return out;
+    }
+
+    // delta 按 key 有序写入，避免并发事务交叉加锁
+    private void apply(String userId, Map<Key, Integer> delta) {
+        if (delta.isEmpty()) return;
+        List<Object[]> rows = new ArrayList<>(delta.size());
+        delta.forEach((k, v) -> rows.add(new Object[]{userId, k.facet(), k.key(), (long) v}));
+        jdbc.batchUpdate(UPSERT, rows);
+    }
+
+    private record Snapshot(int status, String categoryId, String priorityLevelId, String[] tags) {}
+
+    private record Key(String facet, String key) implements Comparable<Key> {
+        @Override
+        public int compareTo(Key o) {
+            int c = facet.compareTo(o.facet);
+            return c != 0 ? c : key.compareTo(o.key);
+        }
+    }
+}
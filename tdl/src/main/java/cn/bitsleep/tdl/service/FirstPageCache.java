@@ -0,0 +1,190 @@
+package cn.bitsleep.tdl.service;
+
+import cn.bitsleep.tdl.dto.TodoView;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBucket;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 列表首页缓存：键为 用户 + 查询形状 + 该用户的变更版本号（见 ChangeVersions）。
+ * 每次写操作在事务提交后递增一次版本号，旧版本的缓存项不再被命中，随 LRU / TTL 自然淘汰，无需扫描删除。
+ * <p>
+ * 两级：进程内 LRU + Redis（多节点共享）。进程内 LRU 按序列化后的大小计重，总量不超过 near.max-bytes。
+ * Redis 键以用户摘要为前缀，版本号递增失败时可按用户删除；在递增重试成功前本节点对该用户不走缓存。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class FirstPageCache {
+
+    private final RedissonClient redissonClient;
+    private final ObjectMapper objectMapper;
+    private final ChangeVersions changeVersions;
+
+    @Value("${tdl.list-cache.enabled:true}")
+    private boolean enabled;
+
+    // 按 JSON 长度估算，进程内对象实际占用约为其数倍
+    @Value("${tdl.list-cache.near.max-bytes:33554432}")
+    private long maxBytes;
+
+    @Value("${tdl.list-cache.redis.ttl-seconds:600}")
+    private long redisTtlSeconds;
+
+    private static final String PAGE_PREFIX = "tdl:todo:page:";
+    private static final TypeReference<List<TodoView>> PAGE_TYPE = new TypeReference<>() {};
+
+    private final LinkedHashMap<String, NearEntry> lru = new LinkedHashMap<>(256, 0.75f, true);
+    private long nearBytes;
+
+    private final LongAdder nearHits = new LongAdder();
+    private final LongAdder remoteHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+
+    @PostConstruct
+    void init() {
+        // 版本号未能递增时旧版本的页仍会被命中：删掉该用户两级缓存中的页
+        changeVersions.onBumpFailure(this::dropUser);
+    }
+
+    /** 命中则返回缓存的首页，否则调用 loader 并写回两级缓存 */
+    public List<TodoView> get(String userId, String shape, Supplier<List<TodoView>> loader) {
+        if (!enabled) return loader.get();
+        if (changeVersions.isPending(userId)) {
+            bypassed.increment();
+            return loader.get();
+        }
+        String version;
+        try {
+            version = changeVersions.current(userId);
+        } catch (Exception e) {
+            log.warn("List cache version read failed, bypassing cache", e);
+            return loader.get();
+        }
+        String key = userId + '|' + shape + '|' + version;
+
+        List<TodoView> page = nearGet(key);
+        if (page != null) {
+            nearHits.increment();
+            return page;
+        }
+        RBucket<String> remote = remote(userId, shape, version);
+        try {
+            String json = remote.get();
+            if (json != null) {
+                page = objectMapper.readValue(json, PAGE_TYPE);
+                remoteHits.increment();
+                nearPut(key, page, json.length());
+                return page;
+            }
+        } catch (Exception e) {
+            log.warn("List cache read from Redis failed", e);
+        }
+
+        misses.increment();
+        page = loader.get();
+        try {
+            String json = objectMapper.writeValueAsString(page);
+            nearPut(key, page, json.length());
+            remote.set(json, redisTtlSeconds, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("List cache write to Redis failed", e);
+        }
+        return page;
+    }
+
+    public Map<String, Object> stats() {
+        long near = nearHits.sum();
+        long remote = remoteHits.sum();
+        long miss = misses.sum();
+        long total = near + remote + miss;
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("enabled", enabled);
+        synchronized (this) {
+            out.put("entries", lru.size());
+            out.put("nearBytes", nearBytes);
+        }
+        out.put("maxNearBytes", maxBytes);
+        out.put("nearHits", near);
+        out.put("remoteHits", remote);
+        out.put("misses", miss);
+        out.put("bypassed", bypassed.sum());
+        out.put("hitRatio", total == 0 ? 0.0 : Math.round((near + remote) * 1000.0 / total) / 1000.0);
+        out.put("versions", changeVersions.stats());
+        return out;
+    }
+
+    private synchronized List<TodoView> nearGet(String key) {
+        NearEntry e = lru.get(key);
+        return e == null ? null : e.page();
+    }
+
+    private synchronized void nearPut(String key, List<TodoView> page, int weight) {
+        if (weight > maxBytes) return;
+        NearEntry old = lru.put(key, new NearEntry(page, weight));
+        nearBytes += weight - (old == null ? 0 : old.weight());
+        var it = lru.values().iterator();
+        while (nearBytes > maxBytes && it.hasNext()) {
+            nearBytes -= it.next().weight();
+            it.remove();
+        }
+    }
+
+    private void dropUser(String userId) {
+        synchronized (this) {
+            var it = lru.entrySet().iterator();
+            while (it.hasNext()) {
+                var e = it.next();
+                if (e.getKey().startsWith(userId + '|')) {
+                    nearBytes -= e.getValue().weight();
+                    it.remove();
+                }
+            }
+        }
+        // SCAN 删除，只在递增失败时发生；Redis 此时多半同样不可用，删除失败时依赖 pending 重试与 TTL
+        redissonClient.getKeys().deleteByPatternAsync(PAGE_PREFIX + userKey(userId) + ":*")
+                .whenComplete((n, e) -> {
+                    if (e != null) log.warn("List cache remote drop failed for user {}", userId, e);
+                });
+    }
+
+    private RBucket<String> remote(String userId, String shape, String version) {
+        return redissonClient.getBucket(PAGE_PREFIX + userKey(userId) + ':' + sha256(shape).substring(0, 16) + ':' + version,
+                StringCodec.INSTANCE);
+    }
+
+    private static String userKey(String userId) {
+        return sha256(userId).substring(0, 16);
+    }
+
+    private record NearEntry(List<TodoView> page, int weight) {}
+
+    private static String sha256(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,11 @@
+package cn.bitsleep.tdl.service;
+
+/**
+ * 分页游标无法解析，或与本次请求的排序方式不一致。
+ */
+public class InvalidCursorException extends IllegalArgumentException {
+
+    public InvalidCursorException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,71 @@
+package cn.bitsleep.tdl.service;
+
+import cn.bitsleep.tdl.dto.TodoView;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * 列表 keyset 分页游标：上一页最后一行的排序键 + id，连同排序方式一起编码为不透明的 base64url 令牌。
+ * sort=created 时 key 为 created_at（ISO-8601），sort=priority 时为 priority_score。
+ */
+public record ListCursor(String sort, boolean asc, String key, String id) {
+
+    public static final String CREATED = "created";
+    public static final String PRIORITY = "priority";
+
+    private static final String VERSION = "v1";
+
+    /** 未知或缺省的排序按 created 处理 */
+    public static String normalizeSort(String sort) {
+        return PRIORITY.equals(sort) ? PRIORITY : CREATED;
+    }
+
+    public static ListCursor after(TodoView last, String sort, boolean asc) {
+        String key = PRIORITY.equals(sort)
+                ? last.priorityScore().toPlainString()
+                : last.createdAt().toString();
+        return new ListCursor(sort, asc, key, last.id());
+    }
+
+    public static ListCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 5);
+            if (parts.length != 5 || !VERSION.equals(parts[0])) throw new InvalidCursorException("Unsupported cursor");
+            ListCursor cursor = new ListCursor(parts[1], "asc".equals(parts[2]), parts[3], parts[4]);
+            // 提前校验 key 格式
+            if (PRIORITY.equals(cursor.sort)) cursor.priorityScore(); else cursor.createdAt();
+            return cursor;
+        } catch (InvalidCursorException e) {
+            throw e;
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new InvalidCursorException("Malformed cursor");
+        }
+    }
+
+    public String encode() {
+        String raw = String.join("|", VERSION, sort, asc ? "asc" : "desc", key, id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public boolean matches(String sort, boolean asc) {
+        return this.sort.equals(sort) && this.asc == asc;
+    }
+
+    public Instant createdAt() {
+        return Instant.parse(key);
+    }
+
+    public BigDecimal priorityScore() {
+        return new BigDecimal(key);
+    }
+
+    /** 按排序类型解析后的排序键（Instant 或 BigDecimal） */
+    public Object sortKey() {
+        return PRIORITY.equals(sort) ? priorityScore() : createdAt();
+    }
+}
@@ -14,6 +14,8 @@ import java.util.UUID;
 public class PriorityService {
 
     private final PriorityLevelRepository repo;
+    private final FacetCounters facetCounters;
+    private final ChangeVersions changeVersions;
 
     private static final long INITIAL_GAP = 1_000_000L; // 初始间隔
     private static final long MIN_GAP = 10L;            // 小于此 gap 触发重排
@@ -70,6 +72,7 @@ public class PriorityService {
                 .name(name)
                 .rank(newRank)
                 .build();
+        changeVersions.bump(userId);
         return repo.save(pl);
     }
 
@@ -79,6 +82,7 @@ public class PriorityService {
         if (!pl.getUserId().equals(userId)) throw new IllegalArgumentException("Forbidden");
         pl.setName(newName);
         repo.save(pl);
+        changeVersions.bump(userId);
     }
 
     @Transactional
@@ -117,6 +121,7 @@ public class PriorityService {
         }
         pl.setRank(newRank);
         repo.save(pl);
+        changeVersions.bump(userId);
     }
 
     @Transactional
@@ -124,5 +129,7 @@ public class PriorityService {
         PriorityLevel pl = repo.findById(id).orElseThrow();
         if (!pl.getUserId().equals(userId)) throw new IllegalArgumentException("Forbidden");
         repo.delete(pl); // 任务上引用保持 NULL 或保留旧 label，不强制级联
+        facetCounters.rebuildAfterCommit(userId);
+        changeVersions.bump(userId);
     }
 }
@@ -0,0 +1,172 @@
+package cn.bitsleep.tdl.service;
+
+import cn.bitsleep.tdl.config.EmbeddingVersion;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBucket;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * 查询向量缓存：规范化后的查询串 -> float[]。
+ * 进程内 LRU（按条数与字节数双重上限淘汰），可选 Redis 作为多节点共享的二级缓存。
+ * Redis 键包含当前模型版本：滚动切换模型期间新旧节点各用各的向量，不会读到另一模型算出的结果。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class QueryEmbeddingCache {
+
+    private final RedissonClient redissonClient;
+    private final EmbeddingVersion embeddingVersion;
+
+    @Value("${tdl.search.query-cache.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${tdl.search.query-cache.max-bytes:16777216}")
+    private long maxBytes;
+
+    @Value("${tdl.search.query-cache.redis.enabled:false}")
+    private boolean redisEnabled;
+
+    @Value("${tdl.search.query-cache.redis.ttl-seconds:86400}")
+    private long redisTtlSeconds;
+
+    private static final String REDIS_PREFIX = "tdl:qemb:";
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // 每条目的大致固定开销（LinkedHashMap.Entry + 数组头 + String 头）
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final LinkedHashMap<String, float[]> lru = new LinkedHashMap<>(256, 0.75f, true);
+    private long weightBytes;
+
+    private final LongAdder nearHits = new LongAdder();
+    private final LongAdder remoteHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * 规范化查询（去首尾空白、折叠空白、转小写；all-MiniLM-L6-v2 为 uncased 模型，向量不受大小写影响），
+     * 命中则直接返回，否则调用 loader 以规范化后的查询计算向量并写回缓存。
+     */
+    public float[] get(String query, Function<String, float[]> loader) {
+        String key = normalize(query);
+
+        float[] vector = nearGet(key);
+        if (vector != null) {
+            nearHits.increment();
+            return vector;
+        }
+
+        if (redisEnabled) {
+            try {
+                byte[] bytes = remote(key).get();
+                if (bytes != null) {
+                    remoteHits.increment();
+                    vector = decode(bytes);
+                    nearPut(key, vector);
+                    return vector;
+                }
+            } catch (Exception e) {
+                log.warn("Query embedding cache read from Redis failed", e);
+            }
+        }
+
+        misses.increment();
+        vector = loader.apply(key);
+        nearPut(key, vector);
+        if (redisEnabled) {
+            try {
+                remote(key).set(encode(vector), redisTtlSeconds, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                log.warn("Query embedding cache write to Redis failed", e);
+            }
+        }
+        return vector;
+    }
+
+    public Map<String, Object> stats() {
+        long near = nearHits.sum();
+        long remote = remoteHits.sum();
+        long miss = misses.sum();
+        long total = near + remote + miss;
+        Map<String, Object> out = new LinkedHashMap<>();
+        synchronized (this) {
+            out.put("entries", lru.size());
+            out.put("weightBytes", weightBytes);
+        }
+        out.put("nearHits", near);
+        out.put("remoteHits", remote);
+        out.put("misses", miss);
+        out.put("evictions", evictions.sum());
+        out.put("hitRatio", total == 0 ? 0.0 : Math.round((near + remote) * 1000.0 / total) / 1000.0);
+        return out;
+    }
+
+    static String normalize(String query) {
+        return WHITESPACE.matcher(query.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    private synchronized float[] nearGet(String key) {
+        return lru.get(key);
+    }
+
+    private synchronized void nearPut(String key, float[] vector) {
+        float[] prev = lru.put(key, vector);
+        if (prev != null) weightBytes -= weigh(key, prev);
+        weightBytes += weigh(key, vector);
+        Iterator<Map.Entry<String, float[]>> it = lru.entrySet().iterator();
+        while ((lru.size() > maxEntries || weightBytes > maxBytes) && it.hasNext()) {
+            Map.Entry<String, float[]> eldest = it.next();
+            weightBytes -= weigh(eldest.getKey(), eldest.getValue());
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    private static long weigh(String key, float[] vector) {
+        return ENTRY_OVERHEAD_BYTES + 2L * key.length() + 4L * vector.length;
+    }
+
+    private RBucket<byte[]> remote(String key) {
+        // tdl:qemb:<模型版本>:<sha256(查询)>
+        return redissonClient.getBucket(REDIS_PREFIX + embeddingVersion.current() + ':' + sha256(key), ByteArrayCodec.INSTANCE);
+    }
+
+    private static byte[] encode(float[] vector) {
+        ByteBuffer buf = ByteBuffer.allocate(vector.length * 4);
+        buf.asFloatBuffer().put(vector);
+        return buf.array();
+    }
+
+    private static float[] decode(byte[] bytes) {
+        float[] vector = new float[bytes.length / 4];
+        ByteBuffer.wrap(bytes).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    private static String sha256(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
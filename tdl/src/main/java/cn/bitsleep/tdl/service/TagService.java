@@ -16,6 +16,8 @@ import java.util.UUID;
 public class TagService {
     private final TagRepository tagRepo;
     private final TodoTagRepository todoTagRepo;
+    private final FacetCounters facetCounters;
+    private final ChangeVersions changeVersions;
 
     public List<Tag> list(String userId) { return tagRepo.findByUserIdOrderByNameAsc(userId); }
 
@@ -26,6 +28,7 @@ public class TagService {
                 .userId(userId)
                 .name(name)
                 .build();
+        changeVersions.bump(userId);
         return tagRepo.save(tag);
     }
 
@@ -35,6 +38,7 @@ public class TagService {
         if (!tag.getUserId().equals(userId)) throw new IllegalArgumentException("Forbidden");
         tag.setName(newName);
         tagRepo.save(tag);
+        changeVersions.bump(userId);
     }
 
     @Transactional
@@ -44,15 +48,20 @@ public class TagService {
         // 删除标签及其所有关联
         todoTagRepo.deleteByTagId(id);
         tagRepo.delete(tag);
+        facetCounters.dropKey(userId, FacetCounters.TAG, id);
+        changeVersions.bump(userId);
     }
 
     @Transactional
     public void setTagsForTodo(String todoId, String userId, List<String> tagIds) {
         // 简化：先删再插
-        todoTagRepo.deleteByTodoId(todoId);
-        for (String tagId : tagIds) {
-            TodoTag tt = TodoTag.builder().todoId(todoId).tagId(tagId).build();
-            todoTagRepo.save(tt);
-        }
+        facetCounters.track(userId, todoId, () -> {
+            todoTagRepo.deleteByTodoId(todoId);
+            for (String tagId : tagIds) {
+                TodoTag tt = TodoTag.builder().todoId(todoId).tagId(tagId).build();
+                todoTagRepo.save(tt);
+            }
+        });
+        changeVersions.bump(userId);
     }
 }
@@ -0,0 +1,83 @@
+package cn.bitsleep.tdl.service;
+
+import cn.bitsleep.tdl.dto.TodoChanges;
+import cn.bitsleep.tdl.dto.TodoView;
+import cn.bitsleep.tdl.repo.TodoChangeRepository;
+import cn.bitsleep.tdl.repo.TodoChangeRepository.Tombstone;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 增量同步：返回同步令牌之后变更的条目与彻底删除的 id。
+ * <p>
+ * updated_at / deleted_at 取的是事务开始时间，提交较晚的长事务可能写入早于已下发水位线的时间。
+ * 因此一批读完（hasMore = false）时，返回的令牌取 数据库当前时间 - settle-ms：
+ * 最近这段时间内的变更下次会重复下发（客户端按 id 覆盖即可），超过 settle-ms 才提交的事务仍可能漏掉。
+ * 令牌早于墓碑保留期时返回 410，客户端应丢弃本地数据后不带 since 全量同步。
+ */
+@Service
+@RequiredArgsConstructor
+public class TodoChangeFeed {
+
+    private final TodoChangeRepository repo;
+
+    @Value("${tdl.changes.settle-ms:5000}")
+    private long settleMs;
+
+    @Value("${tdl.changes.tombstone-retention-days:30}")
+    private long retentionDays;
+
+    // 两路结果在同一快照内读取，避免同一条目的修改与删除跨批乱序
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public TodoChanges changes(String userId, String since, int size) {
+        ChangeToken from = since == null || since.isBlank() ? null : ChangeToken.decode(since);
+        Instant now = repo.now();
+        if (from != null && from.at().isBefore(now.minus(Duration.ofDays(retentionDays)))) {
+            throw new ChangeTokenExpiredException("Change token is older than the tombstone retention, full resync required");
+        }
+
+        // 各取 size + 1 行，按水位线顺序合并后截取前 size 条
+        List<TodoView> changed = from == null
+                ? repo.changedAfter(userId, null, null, size + 1)
+                : repo.changedAfter(userId, from.at(), from.id(), size + 1);
+        // 首次同步只需当前存在的条目，不需要墓碑
+        List<Tombstone> deleted = from == null ? List.of() : repo.deletedAfter(userId, from.at(), from.id(), size + 1);
+
+        List<TodoView> outChanged = new ArrayList<>();
+        List<String> outDeleted = new ArrayList<>();
+        ChangeToken last = from;
+        int i = 0, j = 0;
+        while (outChanged.size() + outDeleted.size() < size && (i < changed.size() || j < deleted.size())) {
+            ChangeToken a = i < changed.size() ? key(changed.get(i)) : null;
+            ChangeToken b = j < deleted.size() ? key(deleted.get(j)) : null;
+            if (b == null || (a != null && a.compareTo(b) <= 0)) {
+                outChanged.add(changed.get(i++));
+                last = a;
+            } else {
+                outDeleted.add(deleted.get(j++).id());
+                last = b;
+            }
+        }
+        boolean hasMore = i < changed.size() || j < deleted.size();
+
+        // 未读完时从本批最后一条继续；读完时可见的变更已全部下发，水位线推进到 settle 窗口起点
+        ChangeToken next = hasMore ? last : new ChangeToken(now.minusMillis(settleMs), "");
+        return new TodoChanges(outChanged, outDeleted, next.encode(), hasMore);
+    }
+
+    private static ChangeToken key(TodoView v) {
+        return new ChangeToken(v.updatedAt(), v.id());
+    }
+
+    private static ChangeToken key(Tombstone t) {
+        return new ChangeToken(t.deletedAt(), t.id());
+    }
+}
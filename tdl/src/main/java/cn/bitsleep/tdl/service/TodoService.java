@@ -1,24 +1,25 @@
 package cn.bitsleep.tdl.service;
 
+import cn.bitsleep.tdl.config.EmbeddingVersion;
 import cn.bitsleep.tdl.domain.TodoItem;
 import cn.bitsleep.tdl.domain.TodoStatus;
+import cn.bitsleep.tdl.dto.TodoView;
+import cn.bitsleep.tdl.dto.TodoViewMapper;
+import cn.bitsleep.tdl.queue.JobOutbox;
+import cn.bitsleep.tdl.queue.Topic;
 import cn.bitsleep.tdl.repo.TodoItemRepository;
+import cn.bitsleep.tdl.repo.TodoListRepository;
 import cn.bitsleep.tdl.repo.PriorityLevelRepository;
 import cn.bitsleep.tdl.repo.CategoryRepository;
+import cn.bitsleep.tdl.repo.TodoSearchRepository;
+import cn.bitsleep.tdl.repo.TodoVectorRepository;
 import cn.bitsleep.tdl.domain.Category;
 import dev.langchain4j.data.document.Metadata;
-import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
-import dev.langchain4j.store.embedding.EmbeddingSearchResult;
-import dev.langchain4j.store.embedding.EmbeddingStore;
-import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
-import org.redisson.api.RDelayedQueue;
-import org.redisson.api.RQueue;
-import org.redisson.api.RedissonClient;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.time.Instant;
@@ -30,42 +31,74 @@ import java.util.UUID;
 public class TodoService {
 
     private final TodoItemRepository repo;
-    private final RedissonClient redissonClient;
     private final EmbeddingModel embeddingModel;
-    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final TodoVectorRepository vectorRepo;
     private final TagService tagService;
     private final PriorityLevelRepository priorityLevelRepository;
     private final CategoryRepository categoryRepository;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final TodoSearchRepository searchRepo;
+    private final TodoListRepository listRepo;
+    private final JobOutbox outbox;
+    private final TodoViewMapper viewMapper;
+    private final FacetCounters facetCounters;
+    private final FirstPageCache firstPageCache;
+    private final ChangeVersions changeVersions;
 
     @Value("${tdl.delete.delay-seconds:604800}")
     private long deleteDelaySeconds;
 
-    private static final String DELETE_QUEUE = "tdl:todo:delete";
-    private static final String EMBED_QUEUE = "tdl:todo:embed";
+    // sql：单条 SQL 完成两路召回 + 融合 + 取行；legacy：分别查询后在 Java 端融合
+    @Value("${tdl.search.mode:sql}")
+    private String searchMode;
 
-    public List<TodoItem> list(String userId, List<TodoStatus> statuses, Instant cursorCreatedAt, String cursorId, int size,
-                               String sort, String order, String priorityLevelId, String categoryId, java.util.List<String> tagIds) {
+    // weighted | rrf（两种搜索模式都支持，legacy 模式在 Java 端按相同公式融合）
+    @Value("${tdl.search.fusion.method:weighted}")
+    private String fusionMethod;
+
+    @Value("${tdl.search.fusion.vector-weight:0.6}")
+    private double vectorWeight;
+
+    @Value("${tdl.search.fusion.text-weight:0.4}")
+    private double textWeight;
+
+    @Value("${tdl.search.fusion.contains-boost:0.25}")
+    private double containsBoost;
+
+    @Value("${tdl.search.fusion.title-exact-boost:0.35}")
+    private double titleExactBoost;
+
+    @Value("${tdl.search.fusion.title-prefix-boost:0.20}")
+    private double titlePrefixBoost;
+
+    @Value("${tdl.search.fusion.score-cap:1.5}")
+    private double scoreCap;
+
+    @Value("${tdl.search.fusion.rrf-k:60}")
+    private int rrfK;
+
+    /**
+     * keyset 分页列表。cursor 为上一页最后一行生成的游标（null 表示首页），其排序方式须与本次请求一致。
+     * matchAllTags 为 true 时要求条目带有全部 tagIds，否则任一即可。
+     */
+    public List<TodoView> list(String userId, List<TodoStatus> statuses, ListCursor cursor, int size,
+                               String sort, String order, String priorityLevelId, String categoryId, java.util.List<String> tagIds,
+                               boolean matchAllTags) {
         Short[] codes = statuses.stream().map(s -> (short) s.code).toArray(Short[]::new);
-        boolean hasFilters = (priorityLevelId != null && !priorityLevelId.isBlank())
-                || (categoryId != null && !categoryId.isBlank())
-                || (tagIds != null && !tagIds.isEmpty());
-        String tagsCsv = (tagIds == null || tagIds.isEmpty()) ? null : String.join(",", tagIds);
+        String[] tags = tagIds == null ? new String[0] : tagIds.stream().distinct().toArray(String[]::new);
+        String sortKey = ListCursor.normalizeSort(sort);
         boolean asc = "asc".equalsIgnoreCase(order);
-        if (hasFilters || (sort != null && !sort.isBlank() && !"created".equals(sort))) {
-            if (sort == null || sort.isBlank() || "created".equals(sort)) {
-                return asc ? repo.filterCreatedAsc(userId, codes, priorityLevelId, categoryId, tagsCsv, size)
-                           : repo.filterCreatedDesc(userId, codes, priorityLevelId, categoryId, tagsCsv, size);
-            } else if ("priority".equals(sort)) {
-                return asc ? repo.filterPriorityAsc(userId, codes, priorityLevelId, categoryId, tagsCsv, size)
-                           : repo.filterPriorityDesc(userId, codes, priorityLevelId, categoryId, tagsCsv, size);
-            }
-        }
-        // 基础 keyset 分页（仅对 created 排序）
-        if (cursorCreatedAt == null || cursorId == null) {
-            return asc ? repo.firstPageAsc(userId, codes, size) : repo.firstPage(userId, codes, size);
+        if (cursor != null && !cursor.matches(sortKey, asc)) {
+            throw new InvalidCursorException("Cursor does not match sort=" + sortKey + " order=" + (asc ? "asc" : "desc"));
         }
-        return asc ? repo.keysetPageAsc(userId, codes, cursorCreatedAt, cursorId, size)
-                   : repo.keysetPage(userId, codes, cursorCreatedAt, cursorId, size);
+        var query = new TodoListRepository.ListQuery(userId, codes, priorityLevelId, categoryId, tags, matchAllTags,
+                ListCursor.PRIORITY.equals(sortKey) ? TodoListRepository.Sort.PRIORITY : TodoListRepository.Sort.CREATED, asc,
+                cursor == null ? null : cursor.sortKey(), cursor == null ? null : cursor.id(), size);
+        if (cursor != null) return listRepo.page(query);
+        // 首页按 用户 + 形状 + 变更版本 缓存
+        String shape = java.util.Arrays.toString(codes) + '|' + sortKey + '|' + asc + '|' + priorityLevelId + '|' + categoryId
+                + '|' + String.join(",", java.util.Arrays.stream(tags).sorted().toList()) + '|' + matchAllTags + '|' + size;
+        return firstPageCache.get(userId, shape, () -> listRepo.page(query));
     }
 
     @Transactional
@@ -97,20 +130,23 @@ public class TodoService {
                 .priorityLevelId(priorityLevelId)
                 .statusCode(TodoStatus.ACTIVE.code)
                 .embeddingText(buildEmbeddingText(title, description))
-                .metadata("{}")
+                .metadata(metadataJson(userId))
                 .build();
-        repo.save(item);
-        if (tagIds != null && !tagIds.isEmpty()) {
-            tagService.setTagsForTodo(item.getId(), userId, tagIds);
-        }
+        facetCounters.track(userId, item.getId(), () -> {
+            repo.save(item);
+            if (tagIds != null && !tagIds.isEmpty()) {
+                tagService.setTagsForTodo(item.getId(), userId, tagIds);
+            }
+        });
         enqueueEmbeddingJob(item.getId(), userId);
+        changeVersions.bump(userId);
         return item;
     }
 
     @Transactional
     public void updateContent(String id, String userId, String title, String description, BigDecimal priorityScore, String priorityLabel, String categoryId, String priorityLevelId, java.util.List<String> tagIds) {
         String text = buildEmbeddingText(title, description);
-        String metadata = "{" + "\"userId\":\"" + userId + "\"}";
+        String metadata = metadataJson(userId);
         if (priorityLevelId != null && !priorityLevelId.isBlank()) {
             var plOpt = priorityLevelRepository.findById(priorityLevelId);
             if (plOpt.isPresent() && userId.equals(plOpt.get().getUserId())) {
@@ -124,42 +160,48 @@ public class TodoService {
             }
         }
         String resolvedCategoryId = resolveCategoryId(userId, categoryId);
-        repo.updateContent(id, userId, title, description, priorityScore, priorityLabel, resolvedCategoryId, priorityLevelId, text, metadata);
-        if (tagIds != null) {
-            tagService.setTagsForTodo(id, userId, tagIds);
-        }
+        BigDecimal score = priorityScore;
+        String label = priorityLabel;
+        facetCounters.track(userId, id, () -> {
+            repo.updateContent(id, userId, title, description, score, label, resolvedCategoryId, priorityLevelId, text, metadata);
+            if (tagIds != null) {
+                tagService.setTagsForTodo(id, userId, tagIds);
+            }
+        });
         enqueueEmbeddingJob(id, userId);
+        changeVersions.bump(userId);
     }
 
     @Transactional
     public void complete(String id, String userId) {
-        repo.updateStatus(id, userId, TodoStatus.COMPLETED.code, null);
+        facetCounters.track(userId, id, () -> repo.updateStatus(id, userId, TodoStatus.COMPLETED.code, null));
+        changeVersions.bump(userId);
     }
 
     @Transactional
     public void uncomplete(String id, String userId) {
-        repo.updateStatus(id, userId, TodoStatus.ACTIVE.code, null);
+        facetCounters.track(userId, id, () -> repo.updateStatus(id, userId, TodoStatus.ACTIVE.code, null));
+        changeVersions.bump(userId);
     }
 
+    // 到期后由 TrashPurger 按 trash_purge_at 批量物理删除
     @Transactional
     public void softDelete(String id, String userId) {
         Instant purgeAt = Instant.now().plusSeconds(deleteDelaySeconds);
-        int updated = repo.updateStatus(id, userId, TodoStatus.TRASHED.code, purgeAt);
-        if (updated > 0) {
-            RQueue<String> queue = redissonClient.getQueue(DELETE_QUEUE);
-            RDelayedQueue<String> delayed = redissonClient.getDelayedQueue(queue);
-            delayed.offer(userId + ":" + id, deleteDelaySeconds, java.util.concurrent.TimeUnit.SECONDS);
-        }
+        facetCounters.track(userId, id, () -> repo.updateStatus(id, userId, TodoStatus.TRASHED.code, purgeAt));
+        changeVersions.bump(userId);
     }
 
     @Transactional
     public void restore(String id, String userId) {
-        repo.updateStatus(id, userId, TodoStatus.ACTIVE.code, null);
+        facetCounters.track(userId, id, () -> repo.updateStatus(id, userId, TodoStatus.ACTIVE.code, null));
+        changeVersions.bump(userId);
     }
 
     @Transactional
     public void hardDelete(String id, String userId) {
-        repo.hardDelete(id, userId);
+        facetCounters.track(userId, id, () -> repo.hardDelete(id, userId));
+        changeVersions.bump(userId);
     }
 
     @Transactional
@@ -173,16 +215,22 @@ public class TodoService {
         if (item.getStatus() != TodoStatus.TRASHED) {
             throw new IllegalStateException("Item not in trash");
         }
-        repo.hardDelete(id, userId);
+        facetCounters.track(userId, id, () -> repo.hardDelete(id, userId));
+        changeVersions.bump(userId);
     }
 
+    // 写入发件箱（同一事务），提交后由 JobOutbox 转发到 Redis
     private void enqueueEmbeddingJob(String id, String userId) {
-        RQueue<String> queue = redissonClient.getQueue(EMBED_QUEUE);
-        queue.offer(userId + ":" + id);
+        outbox.add(Topic.EMBED, userId + ":" + id);
     }
 
     private String buildEmbeddingText(String title, String description) {
-        return (title == null ? "" : title) + "\n" + (description == null ? "" : description);
+        return EmbeddingVersion.buildText(title, description);
+    }
+
+    // metadata 列（PgVectorEmbeddingStore 保留列）只存不会变化的归属信息；状态、分类、优先级读各自的列
+    private static String metadataJson(String userId) {
+        return "{" + "\"userId\":\"" + userId + "\"}";
     }
 
     // 将前端传来的 categoryId 进行解析：若像 UUID 则直接返回；否则视为名称，查找或创建后返回其 id
@@ -204,7 +252,7 @@ public class TodoService {
         return created.getId();
     }
 
-    public List<TodoItem> hybridSearch(String userId, String query, int k) {
+    public List<TodoView> hybridSearch(String userId, String query, int k) {
         String q = query == null ? "" : query.trim();
         if (q.isEmpty()) return java.util.Collections.emptyList();
 
@@ -212,31 +260,37 @@ public class TodoService {
         // 动态阈值：短查询放宽，长查询提高
         double semanticMin = qLen < 3 ? 0.0 : 0.55; // 短词不做语义阈值
         double textMin = qLen < 3 ? 0.0 : 0.20;     // 短词不做文本阈值
-        double alpha = 0.6; // 语义权重
-        double containsBoost = 0.25; // 命中子串加成
 
-        var qEmbedding = embeddingModel.embed(q).content();
-        EmbeddingSearchResult<TextSegment> vecRes = embeddingStore.search(
-                EmbeddingSearchRequest.builder()
-                        .queryEmbedding(qEmbedding)
-                        .maxResults(k)
-                        .build()
-        );
+        // 重复查询直接命中缓存，跳过 ONNX 推理
+        float[] qVector = queryEmbeddingCache.get(q, key -> embeddingModel.embed(key).content().vector());
+
+        if (!"legacy".equalsIgnoreCase(searchMode)) {
+            var fusion = new TodoSearchRepository.Fusion("rrf".equalsIgnoreCase(fusionMethod), vectorWeight, textWeight,
+                    containsBoost, titleExactBoost, titlePrefixBoost, scoreCap, rrfK);
+            return searchRepo.hybridSearch(userId, q, qVector, k, semanticMin, textMin, fusion);
+        }
+
+        // 向量检索在 SQL 内按 user_id / status 过滤
+        var vecRes = vectorRepo.searchNearest(userId, qVector, k);
 
     List<Object[]> textRows = repo.textSearch(userId, q, k);
 
         java.util.Map<String, Double> score = new java.util.HashMap<>();
+        // rrf 与 TodoSearchRepository.FUSE_RRF 一致：只看过阈值后两条腿内的名次
+        boolean rrf = "rrf".equalsIgnoreCase(fusionMethod);
 
-        // 语义候选
-        vecRes.matches().forEach(m -> {
-            String id = m.embeddingId();
+        // 语义候选（按距离升序返回，名次即过阈值后的序号）
+        int vecRank = 0;
+        for (var m : vecRes) {
             double sim = m.score();
             if (sim >= semanticMin) {
-                score.merge(id, alpha * sim, Double::sum);
+                vecRank++;
+                score.merge(m.id(), rrf ? 1.0 / (rrfK + vecRank) : vectorWeight * sim, Double::sum);
             }
-        });
+        }
 
         // 文本候选（带 title 优先级增强）
+        int textRank = 0;
         for (Object[] row : textRows) {
             String id = (String) row[0];
             double s = ((Number) row[1]).doubleValue();
@@ -244,14 +298,20 @@ public class TodoService {
             boolean titlePrefix = Boolean.TRUE.equals(row[3]);
 
             if (s >= textMin) {
+                textRank++;
                 double prev = score.getOrDefault(id, 0.0);
+                if (rrf) {
+                    double titleBoost = titleExact ? titleExactBoost : titlePrefix ? titlePrefixBoost : 0;
+                    score.put(id, prev + 1.0 / (rrfK + textRank) + titleBoost / (rrfK + 1));
+                    continue;
+                }
                 double boost = containsBoost;
-                if (titleExact) boost += 0.35; // 标题完全匹配强力提升
-                else if (titlePrefix) boost += 0.20; // 标题前缀匹配中度提升
+                if (titleExact) boost += titleExactBoost; // 标题完全匹配强力提升
+                else if (titlePrefix) boost += titlePrefixBoost; // 标题前缀匹配中度提升
 
-                double combined = prev + (1 - alpha) * s + boost;
-                // 限制上限到 1.5，避免极端叠加
-                if (combined > 1.5) combined = 1.5;
+                double combined = prev + textWeight * s + boost;
+                // 限制上限，避免极端叠加
+                if (combined > scoreCap) combined = scoreCap;
                 score.put(id, combined);
             }
         }
@@ -265,6 +325,6 @@ public class TodoService {
                 .sorted((a,b) -> Double.compare(score.getOrDefault(b.getId(),0.0), score.getOrDefault(a.getId(),0.0)))
                 .limit(k)
                 .toList();
-        return items;
+        return viewMapper.toViews(items);
     }
 }
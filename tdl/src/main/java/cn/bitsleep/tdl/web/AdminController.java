@@ -0,0 +1,156 @@
+package cn.bitsleep.tdl.web;
+
+import cn.bitsleep.tdl.queue.JobOutbox;
+import cn.bitsleep.tdl.queue.JobQueue;
+import cn.bitsleep.tdl.repo.TodoListRepository;
+import cn.bitsleep.tdl.service.EmbeddingBenchmark;
+import cn.bitsleep.tdl.service.FirstPageCache;
+import cn.bitsleep.tdl.service.QueryEmbeddingCache;
+import cn.bitsleep.tdl.worker.EmbeddingBackfill;
+import cn.bitsleep.tdl.worker.EmbeddingPipeline;
+import cn.bitsleep.tdl.worker.FacetReconciler;
+import cn.bitsleep.tdl.worker.InferencePool;
+import cn.bitsleep.tdl.worker.TrashPurger;
+import cn.bitsleep.tdl.worker.VectorIndexManager;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// 运维指标与维护接口（仅 tdl.admin.users 中的用户可访问，见 SecurityConfig）
+@RestController
+@RequestMapping("/api/admin")
+@RequiredArgsConstructor
+public class AdminController {
+
+    private final EmbeddingPipeline embeddingPipeline;
+    private final InferencePool inferencePool;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final VectorIndexManager vectorIndexManager;
+    private final EmbeddingBenchmark embeddingBenchmark;
+    private final EmbeddingBackfill embeddingBackfill;
+    private final JobQueue jobQueue;
+    private final JobOutbox jobOutbox;
+    private final TrashPurger trashPurger;
+    private final TodoListRepository todoListRepository;
+    private final FacetReconciler facetReconciler;
+    private final FirstPageCache firstPageCache;
+    private final ConditionalGet conditionalGet;
+
+    @GetMapping("/embedding/stats")
+    public Map<String, Object> embeddingStats() {
+        return Map.of(
+                "pipeline", embeddingPipeline.stats(),
+                "inferencePool", inferencePool.lastWindow()
+        );
+    }
+
+    // 对比模型变体的吞吐 / 延迟 / 内存 / 检索质量（CPU 密集，会与后台向量计算争用推理线程）
+    @PostMapping("/embedding/benchmark")
+    public Map<String, Object> embeddingBenchmark(@RequestParam(defaultValue = "fp32,int8") String variants,
+                                                  @RequestParam(defaultValue = "5") int rounds,
+                                                  @RequestParam(defaultValue = "5") int k) throws IOException {
+        var list = Arrays.stream(variants.split(",")).map(String::trim).filter(s -> !s.isEmpty()).toList();
+        return embeddingBenchmark.run(list, Math.min(Math.max(rounds, 1), 50), Math.min(Math.max(k, 1), 20));
+    }
+
+    @GetMapping("/embedding/backfill")
+    public Map<String, Object> backfillStatus() {
+        return embeddingBackfill.status();
+    }
+
+    // 回填到当前模型版本；restart=true 忽略 checkpoint 从头扫描
+    @PostMapping("/embedding/backfill/start")
+    public Map<String, Object> startBackfill(@RequestParam(defaultValue = "false") boolean restart) {
+        return embeddingBackfill.start(restart);
+    }
+
+    @PostMapping("/embedding/backfill/pause")
+    public Map<String, Object> pauseBackfill() {
+        return embeddingBackfill.pause();
+    }
+
+    // 各任务流的长度 / 未确认数 / 死信数与本节点计数，以及发件箱积压
+    @GetMapping("/queues")
+    public Map<String, Object> queues() {
+        return Map.of(
+                "streams", jobQueue.stats(),
+                "outbox", jobOutbox.stats()
+        );
+    }
+
+    @GetMapping("/trash/purge")
+    public Map<String, Object> trashPurgeStats() {
+        return trashPurger.stats();
+    }
+
+    // 立即执行一轮回收站清理
+    @PostMapping("/trash/purge")
+    public Map<String, Object> purgeTrash() {
+        return trashPurger.purge();
+    }
+
+    // 列表首页缓存命中率与版本号滞后情况
+    @GetMapping("/todos/list-cache")
+    public Map<String, Object> listCacheStats() {
+        return firstPageCache.stats();
+    }
+
+    // 条件 GET 的 304 比例
+    @GetMapping("/etag")
+    public Map<String, Object> etagStats() {
+        return conditionalGet.stats();
+    }
+
+    @GetMapping("/facets/reconcile")
+    public Map<String, Object> facetReconcileStats() {
+        return facetReconciler.stats();
+    }
+
+    // 立即校正下一批用户的侧边栏计数
+    @PostMapping("/facets/reconcile")
+    public Map<String, Object> reconcileFacets() {
+        return facetReconciler.reconcile();
+    }
+
+    // 列表查询各形状的 EXPLAIN：用到的索引、todo_item 是否顺序扫描
+    @GetMapping("/todos/list-plans")
+    public Map<String, Object> listPlans(@RequestParam String userId) {
+        List<Map<String, Object>> plans = todoListRepository.explainShapes(userId);
+        return Map.of(
+                "cachedShapes", todoListRepository.cachedShapes(),
+                "seqScanShapes", plans.stream().filter(p -> Boolean.TRUE.equals(p.get("seqScanOnTodoItem"))).count(),
+                "plans", plans
+        );
+    }
+
+    @GetMapping("/search/query-cache")
+    public Map<String, Object> queryCacheStats() {
+        return queryEmbeddingCache.stats();
+    }
+
+    @GetMapping("/vector/index")
+    public Map<String, Object> vectorIndex() {
+        return vectorIndexManager.status();
+    }
+
+    // 后台执行，立即返回；进度与结果见 GET /vector/index
+    @PostMapping("/vector/index/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildVectorIndex() {
+        return ResponseEntity.accepted().body(vectorIndexManager.requestRebuild());
+    }
+
+    @GetMapping("/vector/recall")
+    public Map<String, Object> vectorRecall(@RequestParam(defaultValue = "20") int samples,
+                                            @RequestParam(defaultValue = "10") int k) {
+        return vectorIndexManager.recallReport(Math.min(Math.max(samples, 1), 200), Math.min(Math.max(k, 1), 100));
+    }
+}
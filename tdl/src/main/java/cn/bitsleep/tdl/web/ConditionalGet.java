@@ -0,0 +1,99 @@
+package cn.bitsleep.tdl.web;
+
+import cn.bitsleep.tdl.service.ChangeVersions;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 读接口的条件 GET：ETag = "范围-用户摘要-变更版本号"，If-None-Match 命中时直接 304，不查库也不序列化。
+ * 版本号带每用户的随机 epoch（见 ChangeVersions），Redis 被清空后旧 ETag 不会误中；
+ * 搜索另含搜索计数，向量写回只使搜索的 ETag 失效。
+ * 版本号在读取数据之前直接从 Redis 读取（不复用 version-ttl-ms 内的本地值，校验成本为一次 GET），
+ * 响应数据至少与 ETag 对应的版本一样新：最坏情况是下次请求多返回一次 200。
+ * 对已变化的数据仍可能返回 304 的窗口：写事务已提交、提交后的 INCR 尚未完成的这段时间；
+ * 递增失败的用户在重试成功前不做校验、不下发 ETag。
+ * 响应为 private, no-cache：浏览器缓存响应体，每次使用前带 If-None-Match 回源校验；共享缓存不保存。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ConditionalGet {
+
+    private final ChangeVersions changeVersions;
+
+    @Value("${tdl.etag.enabled:true}")
+    private boolean enabled;
+
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+
+    /**
+     * 客户端持有的版本仍是最新时返回 true（已置 304），调用方应直接返回 null；
+     * 否则已写入 ETag 头，调用方照常生成响应。
+     */
+    public boolean notModified(WebRequest request, String userId, String scope) {
+        return notModified(request, userId, scope, false);
+    }
+
+    /** 搜索结果还取决于向量：版本号含搜索计数 */
+    public boolean searchNotModified(WebRequest request, String userId) {
+        return notModified(request, userId, "search", true);
+    }
+
+    private boolean notModified(WebRequest request, String userId, String scope, boolean search) {
+        if (!enabled) return false;
+        if (changeVersions.isPending(userId)) {
+            // 该用户有未成功的版本号递增，旧 ETag 仍会匹配：本次不校验
+            bypassed.increment();
+            return false;
+        }
+        String version;
+        try {
+            version = search ? changeVersions.freshSearch(userId) : changeVersions.fresh(userId);
+        } catch (Exception e) {
+            // 版本号不可用时不做校验，也不下发 ETag
+            bypassed.increment();
+            log.warn("Change version read failed, serving {} without ETag", scope, e);
+            return false;
+        }
+        checks.increment();
+        if (request instanceof NativeWebRequest nwr) {
+            HttpServletResponse response = nwr.getNativeResponse(HttpServletResponse.class);
+            if (response != null) {
+                response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+                // 同一 URL 的响应因登录用户而异
+                response.setHeader(HttpHeaders.VARY, "Authorization, X-User-ID");
+            }
+        }
+        // 用户摘要避免切换用户后以相同版本号误判为未修改
+        String etag = "\"" + scope + '-' + Integer.toUnsignedString(userId.hashCode(), 36) + '-' + version + "\"";
+        if (request.checkNotModified(etag)) {
+            notModified.increment();
+            return true;
+        }
+        return false;
+    }
+
+    public Map<String, Object> stats() {
+        long total = checks.sum();
+        long hits = notModified.sum();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("enabled", enabled);
+        out.put("checks", total);
+        out.put("notModified", hits);
+        out.put("notModifiedRatio", total == 0 ? 0.0 : Math.round(hits * 1000.0 / total) / 1000.0);
+        out.put("bypassed", bypassed.sum());
+        return out;
+    }
+}
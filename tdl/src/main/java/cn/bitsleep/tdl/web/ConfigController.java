@@ -13,6 +13,7 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import jakarta.validation.constraints.NotBlank;
 import java.util.List;
@@ -27,6 +28,7 @@ public class ConfigController {
     private final PriorityService priorityService;
     private final CategoryService categoryService;
     private final TagService tagService;
+    private final ConditionalGet conditionalGet;
 
     private String userIdOrDefault(String header) {
         String user = null;
@@ -43,8 +45,11 @@ public class ConfigController {
 
     // ===== Priority Levels =====
     @GetMapping("/priority-levels")
-    public List<PriorityLevel> listPriorities(@RequestHeader(value = "X-User-ID", required = false) String userHeader) {
-        return priorityService.list(userIdOrDefault(userHeader));
+    public List<PriorityLevel> listPriorities(@RequestHeader(value = "X-User-ID", required = false) String userHeader,
+                                              WebRequest request) {
+        String userId = userIdOrDefault(userHeader);
+        if (conditionalGet.notModified(request, userId, "priority-levels")) return null;
+        return priorityService.list(userId);
     }
 
     @PostMapping("/priority-levels")
@@ -76,8 +81,11 @@ public class ConfigController {
 
     // ===== Categories =====
     @GetMapping("/categories")
-    public List<Category> listCategories(@RequestHeader(value = "X-User-ID", required = false) String userHeader) {
-        return categoryService.list(userIdOrDefault(userHeader));
+    public List<Category> listCategories(@RequestHeader(value = "X-User-ID", required = false) String userHeader,
+                                         WebRequest request) {
+        String userId = userIdOrDefault(userHeader);
+        if (conditionalGet.notModified(request, userId, "categories")) return null;
+        return categoryService.list(userId);
     }
 
     @PostMapping("/categories")
@@ -103,8 +111,11 @@ public class ConfigController {
 
     // ===== Tags =====
     @GetMapping("/tags")
-    public List<Tag> listTags(@RequestHeader(value = "X-User-ID", required = false) String userHeader) {
-        return tagService.list(userIdOrDefault(userHeader));
+    public List<Tag> listTags(@RequestHeader(value = "X-User-ID", required = false) String userHeader,
+                              WebRequest request) {
+        String userId = userIdOrDefault(userHeader);
+        if (conditionalGet.notModified(request, userId, "tags")) return null;
+        return tagService.list(userId);
     }
 
     @PostMapping("/tags")
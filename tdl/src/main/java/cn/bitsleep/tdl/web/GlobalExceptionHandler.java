@@ -1,5 +1,7 @@
 package cn.bitsleep.tdl.web;
 
+import cn.bitsleep.tdl.service.ChangeTokenExpiredException;
+import cn.bitsleep.tdl.service.InvalidCursorException;
 import org.hibernate.StaleObjectStateException;
 import org.springframework.web.servlet.resource.NoResourceFoundException;
 import org.springframework.http.HttpStatus;
@@ -37,6 +39,17 @@ public class GlobalExceptionHandler {
         return body(HttpStatus.BAD_REQUEST, "BAD_REQUEST", e.getMessage());
     }
 
+    @ExceptionHandler(InvalidCursorException.class)
+    public ResponseEntity<Map<String,Object>> handleBadCursor(InvalidCursorException e) {
+        return body(HttpStatus.BAD_REQUEST, "BAD_CURSOR", e.getMessage());
+    }
+
+    // 同步令牌已超出墓碑保留期，客户端需全量重新同步
+    @ExceptionHandler(ChangeTokenExpiredException.class)
+    public ResponseEntity<Map<String,Object>> handleExpiredToken(ChangeTokenExpiredException e) {
+        return body(HttpStatus.GONE, "RESYNC_REQUIRED", e.getMessage());
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<Map<String,Object>> handleGeneric(Exception e) {
         return body(HttpStatus.INTERNAL_SERVER_ERROR, "INTERNAL_ERROR", e.getMessage());
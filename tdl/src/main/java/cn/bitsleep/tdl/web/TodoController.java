@@ -1,7 +1,12 @@
 package cn.bitsleep.tdl.web;
 
-import cn.bitsleep.tdl.domain.TodoItem;
 import cn.bitsleep.tdl.domain.TodoStatus;
+import cn.bitsleep.tdl.dto.TodoChanges;
+import cn.bitsleep.tdl.dto.TodoView;
+import cn.bitsleep.tdl.dto.TodoViewMapper;
+import cn.bitsleep.tdl.service.FacetCounters;
+import cn.bitsleep.tdl.service.ListCursor;
+import cn.bitsleep.tdl.service.TodoChangeFeed;
 import cn.bitsleep.tdl.service.TodoService;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
@@ -13,6 +18,7 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.math.BigDecimal;
 import java.time.Instant;
@@ -27,6 +33,12 @@ import java.util.Map;
 public class TodoController {
 
     private final TodoService service;
+    private final TodoViewMapper viewMapper;
+    private final FacetCounters facetCounters;
+    private final ConditionalGet conditionalGet;
+    private final TodoChangeFeed changeFeed;
+
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
 
     private String userIdOrDefault(String header) {
         String user = null;
@@ -42,39 +54,81 @@ public class TodoController {
         return user.trim();
     }
 
+    // 下一页游标通过响应头 X-Next-Cursor 返回（本页不足 size 条时不返回），请求时以 cursor 参数原样带回
     @GetMapping
-    public List<TodoItem> list(
+    public ResponseEntity<List<TodoView>> list(
             @RequestHeader(value = "X-User-ID", required = false) String userHeader,
-            @RequestParam(required = false) Instant cursorCreatedAt,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Instant cursorCreatedAt, // 兼容旧参数（仅 sort=created）
             @RequestParam(required = false) String cursorId,
             @RequestParam(defaultValue = "20") @Min(1) @Max(200) int size,
             @RequestParam(required = false) String status, // CSV of ACTIVE,COMPLETED,TRASHED
-            @RequestParam(required = false) String sort,
-            @RequestParam(required = false) String order, // 预留（当前仅支持 DESC）
+            @RequestParam(required = false) String sort, // created | priority
+            @RequestParam(required = false) String order, // asc | desc（默认 desc）
             @RequestParam(required = false) String priorityLevelId,
             @RequestParam(required = false) String categoryId,
-            @RequestParam(required = false) String tags // CSV tag ids
+            @RequestParam(required = false) String tags, // CSV tag ids
+            @RequestParam(defaultValue = "any") String tagMatch, // any | all
+            WebRequest request
     ) {
         String userId = userIdOrDefault(userHeader);
+        if (conditionalGet.notModified(request, userId, "todos")) return null;
         List<TodoStatus> statuses = (status == null || status.isBlank()) ?
                 List.of(TodoStatus.ACTIVE, TodoStatus.COMPLETED) :
                 Arrays.stream(status.split(",")).map(String::trim).map(TodoStatus::valueOf).toList();
         List<String> tagIds = (tags == null || tags.isBlank()) ? null : Arrays.stream(tags.split(",")).map(String::trim).filter(s->!s.isEmpty()).toList();
-        return service.list(userId, statuses, cursorCreatedAt, cursorId, size, sort, order, priorityLevelId, categoryId, tagIds);
+        String sortKey = ListCursor.normalizeSort(sort);
+        boolean asc = "asc".equalsIgnoreCase(order);
+        ListCursor pageCursor = null;
+        if (cursor != null && !cursor.isBlank()) {
+            pageCursor = ListCursor.decode(cursor);
+        } else if (cursorCreatedAt != null && cursorId != null && ListCursor.CREATED.equals(sortKey)) {
+            pageCursor = new ListCursor(sortKey, asc, cursorCreatedAt.toString(), cursorId);
+        }
+        List<TodoView> items = service.list(userId, statuses, pageCursor, size, sort, order, priorityLevelId, categoryId, tagIds,
+                "all".equalsIgnoreCase(tagMatch));
+        var response = ResponseEntity.ok();
+        if (items.size() == size) {
+            response.header(NEXT_CURSOR_HEADER, ListCursor.after(items.get(items.size() - 1), sortKey, asc).encode());
+        }
+        return response.body(items);
     }
 
     @PostMapping
-    public TodoItem create(@RequestHeader(value = "X-User-ID", required = false) String userHeader,
+    public TodoView create(@RequestHeader(value = "X-User-ID", required = false) String userHeader,
                            @RequestBody CreateTodo req) {
         String userId = userIdOrDefault(userHeader);
-        return service.create(userId, req.title, req.description, req.priorityScore, req.priorityLabel, req.categoryId, req.priorityLevelId, req.tagIds);
+        return viewMapper.toView(service.create(userId, req.title, req.description, req.priorityScore, req.priorityLabel, req.categoryId, req.priorityLevelId, req.tagIds));
+    }
+
+    // 侧边栏计数：按状态 / 分类 / 优先级 / 标签（后三者不含回收站），读预聚合的计数行
+    @GetMapping("/facets")
+    public Map<String, Map<String, Long>> facets(@RequestHeader(value = "X-User-ID", required = false) String userHeader,
+                                                 WebRequest request) {
+        String userId = userIdOrDefault(userHeader);
+        if (conditionalGet.notModified(request, userId, "facets")) return null;
+        return facetCounters.facets(userId);
+    }
+
+    // 增量同步：since 为上次响应的 next（首次不带），hasMore 为 true 时立即继续拉取
+    @GetMapping("/changes")
+    public TodoChanges changes(@RequestHeader(value = "X-User-ID", required = false) String userHeader,
+                               @RequestParam(required = false) String since,
+                               @RequestParam(defaultValue = "200") @Min(1) @Max(1000) int size,
+                               WebRequest request) {
+        String userId = userIdOrDefault(userHeader);
+        if (conditionalGet.notModified(request, userId, "changes")) return null;
+        return changeFeed.changes(userId, since, size);
     }
 
     @GetMapping("/search")
-    public List<TodoItem> search(@RequestHeader(value = "X-User-ID", required = false) String userHeader,
+    public List<TodoView> search(@RequestHeader(value = "X-User-ID", required = false) String userHeader,
                                  @RequestParam("q") String q,
-                                 @RequestParam(defaultValue = "20") @Min(1) @Max(200) int k) {
+                                 @RequestParam(defaultValue = "20") @Min(1) @Max(200) int k,
+                                 WebRequest request) {
         String userId = userIdOrDefault(userHeader);
+        // 在计算查询向量之前校验
+        if (conditionalGet.searchNotModified(request, userId)) return null;
         return service.hybridSearch(userId, q, k);
     }
 
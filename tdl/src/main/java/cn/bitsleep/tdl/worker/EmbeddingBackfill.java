@@ -0,0 +1,357 @@
+package cn.bitsleep.tdl.worker;
+
+import cn.bitsleep.tdl.config.EmbeddingVersion;
+import cn.bitsleep.tdl.queue.JobQueue;
+import cn.bitsleep.tdl.queue.Topic;
+import cn.bitsleep.tdl.repo.TodoVectorRepository;
+import cn.bitsleep.tdl.repo.TodoVectorRepository.BackfillUpdate;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量重算向量（模型或嵌入文本格式变更后）：
+ * 按 id 顺序用服务端游标流式读取版本不是当前版本的行，分批 embedAll + 批量写回，每批写 checkpoint（last_id），
+ * 进程退出后从 checkpoint 续跑；按速率上限限流（在同一游标事务内等待，事务时长受 chunk-max-ms 限制），
+ * 实时队列有积压时暂停，避免挤占在线请求的推理资源。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class EmbeddingBackfill {
+
+    private final JdbcTemplate jdbc;
+    private final TodoVectorRepository vectorRepo;
+    private final EmbeddingModel embeddingModel;
+    private final EmbeddingVersion embeddingVersion;
+    private final JobQueue jobQueue;
+
+    @Value("${tdl.embedding.backfill.batch-size:64}")
+    private int batchSize;
+
+    // 一个游标事务最多读取的行数（限制长事务对 vacuum 的影响），读完后从 checkpoint 重新打开
+    @Value("${tdl.embedding.backfill.chunk-rows:5000}")
+    private int chunkRows;
+
+    // 游标事务保持打开的时间上限：限速等待在 chunk 内进行，超过该时长的等待才结束 chunk
+    @Value("${tdl.embedding.backfill.chunk-max-ms:30000}")
+    private long chunkMaxMs;
+
+    // 0 表示不限速
+    @Value("${tdl.embedding.backfill.max-rows-per-sec:200}")
+    private int maxRowsPerSec;
+
+    // 实时向量队列长度超过该值时暂停回填
+    @Value("${tdl.embedding.backfill.pause-when-queue-above:100}")
+    private int pauseWhenQueueAbove;
+
+    // 单次让路等待的上限：超过后至少处理一批再重新检查，保证回填持续推进、租约按时续期（应小于 lease-seconds）
+    @Value("${tdl.embedding.backfill.max-yield-ms:30000}")
+    private long maxYieldMs;
+
+    @Value("${tdl.embedding.backfill.lease-seconds:120}")
+    private int leaseSeconds;
+
+    private static final String SCAN = """
+            SELECT id, title, description FROM todo_item
+            WHERE id > ? AND status <> 2 AND embedding_model_version IS DISTINCT FROM ?
+            ORDER BY id
+            LIMIT ?
+            """;
+    private static final String COUNT_REMAINING = """
+            SELECT count(*) FROM todo_item
+            WHERE id > ? AND status <> 2 AND embedding_model_version IS DISTINCT FROM ?
+            """;
+    private static final String ACQUIRE_LEASE = """
+            UPDATE embedding_backfill SET owner = ?, lease_until = NOW() + make_interval(secs => ?), updated_at = NOW()
+            WHERE id = ? AND status = 'RUNNING' AND (owner IS NULL OR owner = ? OR lease_until < NOW())
+            """;
+    private static final String CHECKPOINT = """
+            UPDATE embedding_backfill SET last_id = ?, processed = processed + ?, embedded = embedded + ?,
+              lease_until = NOW() + make_interval(secs => ?), updated_at = NOW()
+            WHERE id = ? AND owner = ?
+            """;
+
+    private final String node = nodeName();
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "embed-backfill");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile Future<?> running;
+    private volatile boolean pauseRequested;
+    private volatile boolean shuttingDown;
+
+    // 本节点当前这次运行的统计
+    private volatile long runStartNanos;
+    private final AtomicLong runProcessed = new AtomicLong();
+    private final AtomicLong runEmbedded = new AtomicLong();
+    private final AtomicLong throttledMs = new AtomicLong();
+    // 限速：下一批最早的开始时间（仅回填线程访问）
+    private long nextBatchAt;
+
+    /** 进程中途退出（或节点宕机）留下的当前版本任务自动续跑：租约过期后由任一节点接手 */
+    @Scheduled(initialDelayString = "${tdl.embedding.backfill.resume-check-initial-delay-ms:30000}",
+            fixedDelayString = "${tdl.embedding.backfill.resume-check-ms:60000}")
+    public void resumeIfPending() {
+        if (running != null && !running.isDone()) return;
+        Integer n = jdbc.queryForObject("SELECT count(*) FROM embedding_backfill WHERE id = ? AND status = 'RUNNING'",
+                Integer.class, embeddingVersion.current());
+        if (n != null && n > 0) start(false);
+    }
+
+    /**
+     * 启动（或从 checkpoint 继续）回填到当前版本；restart=true 时从头扫描。
+     */
+    public synchronized Map<String, Object> start(boolean restart) {
+        if (running != null && !running.isDone()) return status();
+        String target = embeddingVersion.current();
+        if (restart) {
+            jdbc.update("UPDATE embedding_backfill SET last_id = '', processed = 0, embedded = 0 WHERE id = ?", target);
+        }
+        jdbc.update("""
+                INSERT INTO embedding_backfill (id, status) VALUES (?, 'RUNNING')
+                ON CONFLICT (id) DO UPDATE SET status = 'RUNNING', error = NULL, finished_at = NULL, updated_at = NOW()
+                """, target);
+        String lastId = jdbc.queryForObject("SELECT last_id FROM embedding_backfill WHERE id = ?", String.class, target);
+        Long remaining = jdbc.queryForObject(COUNT_REMAINING, Long.class, lastId, target);
+        jdbc.update("UPDATE embedding_backfill SET total_estimate = processed + ? WHERE id = ?", remaining, target);
+
+        if (jdbc.update(ACQUIRE_LEASE, node, leaseSeconds, target, node) == 0) {
+            log.info("Embedding backfill {} is owned by another node", target);
+            return status();
+        }
+        pauseRequested = false;
+        runStartNanos = System.nanoTime();
+        runProcessed.set(0);
+        runEmbedded.set(0);
+        throttledMs.set(0);
+        running = runner.submit(() -> run(target, lastId));
+        log.info("Embedding backfill to {} started from '{}' (~{} rows remaining)", target, lastId, remaining);
+        return status();
+    }
+
+    public Map<String, Object> pause() {
+        pauseRequested = true;
+        return status();
+    }
+
+    public Map<String, Object> status() {
+        String target = embeddingVersion.current();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("targetVersion", target);
+        List<Map<String, Object>> rows = jdbc.queryForList("""
+                SELECT status, last_id, processed, embedded, total_estimate, owner, error, started_at, updated_at, finished_at
+                FROM embedding_backfill WHERE id = ?
+                """, target);
+        out.put("job", rows.isEmpty() ? null : rows.get(0));
+        boolean active = running != null && !running.isDone();
+        out.put("runningOnThisNode", active);
+        if (active || runProcessed.get() > 0) {
+            long elapsedNanos = Math.max(1, System.nanoTime() - runStartNanos);
+            out.put("runProcessed", runProcessed.get());
+            out.put("runEmbedded", runEmbedded.get());
+            out.put("runRowsPerSec", runProcessed.get() * 1_000_000_000L / elapsedNanos);
+            out.put("throttledMs", throttledMs.get());
+        }
+        return out;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // 退出时保持 RUNNING 并释放租约，下次启动（或其他节点）从 checkpoint 续跑
+        shuttingDown = true;
+        runner.shutdown();
+        runner.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private void run(String target, String startAfter) {
+        try {
+            String lastId = startAfter;
+            nextBatchAt = System.nanoTime();
+            while (!pauseRequested && !shuttingDown) {
+                // 所有等待都在游标事务之外进行
+                pace();
+                if (pauseRequested || shuttingDown) break;
+                String chunkLast = processChunk(target, lastId);
+                if (chunkLast == null) {
+                    jdbc.update("UPDATE embedding_backfill SET status = 'DONE', owner = NULL, lease_until = NULL, finished_at = NOW(), updated_at = NOW() WHERE id = ? AND owner = ?",
+                            target, node);
+                    log.info("Embedding backfill to {} finished: {}", target, status());
+                    return;
+                }
+                lastId = chunkLast;
+            }
+            String status = shuttingDown ? "RUNNING" : "PAUSED";
+            jdbc.update("UPDATE embedding_backfill SET status = ?, owner = NULL, lease_until = NULL, updated_at = NOW() WHERE id = ? AND owner = ?",
+                    status, target, node);
+            log.info("Embedding backfill to {} stopped at '{}' ({})", target, lastId, shuttingDown ? "shutdown" : "paused");
+        } catch (LeaseLostException e) {
+            log.warn("Embedding backfill to {} lost its lease, another node took over", target);
+        } catch (Exception e) {
+            log.error("Embedding backfill to {} failed", target, e);
+            // 只改自己持有的任务：租约已被其他节点接手时不覆盖对方的状态
+            jdbc.update("UPDATE embedding_backfill SET status = 'FAILED', error = ?, owner = NULL, lease_until = NULL, updated_at = NOW() WHERE id = ? AND owner = ?",
+                    String.valueOf(e.getMessage()), target, node);
+        }
+    }
+
+    /**
+     * 读取一个 chunk 并处理。pgjdbc 只有在非 autocommit 且设置了 fetchSize 时才使用服务端游标分批拉取，
+     * 否则会把整个结果集读进内存。写回走连接池中的其他连接（自动提交），游标事务只读。
+     * 限速间隔在 chunk 内等待（只读事务短暂空闲），但游标事务总时长不超过 chunk-max-ms：
+     * 等待会越过这一期限、或实时队列有积压需要让路时提前结束 chunk（提交并关闭游标），
+     * 由 run 在事务外等待后从 checkpoint 重新打开。
+     *
+     * @return 本 chunk 最后处理的 id；没有剩余行时为 null
+     */
+    private String processChunk(String target, String afterId) {
+        return jdbc.execute((ConnectionCallback<String>) con -> {
+            boolean autoCommit = con.getAutoCommit();
+            con.setAutoCommit(false);
+            try (PreparedStatement ps = con.prepareStatement(SCAN)) {
+                ps.setFetchSize(batchSize);
+                ps.setString(1, afterId);
+                ps.setString(2, target);
+                ps.setInt(3, chunkRows);
+                String last = null;
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(chunkMaxMs);
+                List<Row> batch = new ArrayList<>(batchSize);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        batch.add(new Row(rs.getString("id"), rs.getString("title"), rs.getString("description")));
+                        if (batch.size() >= batchSize) {
+                            last = flush(target, batch);
+                            batch.clear();
+                            if (pauseRequested || shuttingDown || !awaitNextBatch(deadline)) break;
+                        }
+                    }
+                }
+                if (!batch.isEmpty()) last = flush(target, batch);
+                con.commit();
+                return last;
+            } catch (SQLException | RuntimeException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(autoCommit);
+            }
+        });
+    }
+
+    private String flush(String target, List<Row> batch) {
+        long start = System.nanoTime();
+
+        List<Row> rows = new ArrayList<>(batch.size());
+        List<TextSegment> segments = new ArrayList<>(batch.size());
+        for (Row row : batch) {
+            String text = EmbeddingVersion.buildText(row.title(), row.description());
+            if (text.isBlank()) continue; // 空文本无法向量化，只推进 checkpoint
+            rows.add(row);
+            segments.add(TextSegment.from(text));
+        }
+        int updated = 0;
+        if (!segments.isEmpty()) {
+            List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+            List<BackfillUpdate> updates = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                Row row = rows.get(i);
+                updates.add(new BackfillUpdate(row.id(), row.title(), row.description(), segments.get(i).text(), embeddings.get(i).vector()));
+            }
+            updated = vectorRepo.backfillEmbeddings(updates, target);
+        }
+
+        String lastId = batch.get(batch.size() - 1).id();
+        if (jdbc.update(CHECKPOINT, lastId, batch.size(), updated, leaseSeconds, target, node) == 0) {
+            throw new LeaseLostException();
+        }
+        runProcessed.addAndGet(batch.size());
+        runEmbedded.addAndGet(updated);
+
+        // 限速：本批耗时不足 batch / maxRowsPerSec 时，下一批推迟到补足为止
+        if (maxRowsPerSec > 0) {
+            nextBatchAt = start + batch.size() * 1_000_000_000L / maxRowsPerSec;
+        }
+        return lastId;
+    }
+
+    /**
+     * chunk 内两批之间：在期限内补足限速间隔后返回 true 继续读取；
+     * 实时队列积压或等待会越过 chunk 期限时返回 false，结束 chunk 到事务外等待。
+     */
+    private boolean awaitNextBatch(long deadline) {
+        if (jobQueue.backlog(Topic.EMBED) > pauseWhenQueueAbove) return false;
+        long now = System.nanoTime();
+        if (Math.max(now, nextBatchAt) >= deadline) return false;
+        long sleepMs = (nextBatchAt - now) / 1_000_000;
+        if (sleepMs > 0) {
+            sleep(sleepMs);
+            throttledMs.addAndGet(sleepMs);
+        }
+        return true;
+    }
+
+    // 先补足限速间隔，再在实时队列积压时让路（最多 max-yield-ms）
+    private void pace() {
+        long sleepMs = (nextBatchAt - System.nanoTime()) / 1_000_000;
+        if (sleepMs > 0) {
+            sleep(sleepMs);
+            throttledMs.addAndGet(sleepMs);
+        }
+        long waited = 0;
+        while (!pauseRequested && !shuttingDown && waited < maxYieldMs
+                && jobQueue.backlog(Topic.EMBED) > pauseWhenQueueAbove) {
+            sleep(1000);
+            waited += 1000;
+            throttledMs.addAndGet(1000);
+        }
+        if (waited >= maxYieldMs) {
+            log.debug("Embedding backfill yielded {} ms to the live queue, processing one batch", waited);
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String nodeName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + ":" + ProcessHandle.current().pid();
+    }
+
+    private record Row(String id, String title, String description) {}
+
+    private static class LeaseLostException extends RuntimeException {
+    }
+}
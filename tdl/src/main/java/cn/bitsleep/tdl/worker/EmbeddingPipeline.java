@@ -0,0 +1,118 @@
+package cn.bitsleep.tdl.worker;
+
+import cn.bitsleep.tdl.config.EmbeddingVersion;
+import cn.bitsleep.tdl.domain.TodoItem;
+import cn.bitsleep.tdl.repo.TodoItemRepository;
+import cn.bitsleep.tdl.repo.TodoVectorRepository;
+import cn.bitsleep.tdl.repo.TodoVectorRepository.EmbeddingUpdate;
+import cn.bitsleep.tdl.service.ChangeVersions;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 向量计算微批处理：一批 job 只做一次行加载、一次 embedAll、一次批量 UPDATE。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class EmbeddingPipeline {
+
+    private final TodoItemRepository repo;
+    private final TodoVectorRepository vectorRepo;
+    private final EmbeddingModel embeddingModel;
+    private final EmbeddingVersion embeddingVersion;
+    private final ChangeVersions changeVersions;
+
+    private final AtomicLong jobsTotal = new AtomicLong();
+    private final AtomicLong embeddedTotal = new AtomicLong();
+    private final AtomicLong skippedTotal = new AtomicLong();
+    private final AtomicLong batchesTotal = new AtomicLong();
+    private final AtomicLong busyNanosTotal = new AtomicLong();
+
+    /**
+     * @param jobs 队列中的 job（格式 userId:id）
+     * @return 实际写回向量的行数
+     */
+    @Transactional
+    public int process(List<String> jobs) {
+        long start = System.nanoTime();
+
+        // 同一批内按 id 去重，保留 id -> userId
+        Map<String, String> owners = new LinkedHashMap<>();
+        for (String job : jobs) {
+            String[] parts = job.split(":", 2);
+            owners.put(parts[1], parts[0]);
+        }
+
+        String version = embeddingVersion.current();
+        List<TodoItem> items = new ArrayList<>();
+        List<TextSegment> segments = new ArrayList<>();
+        for (TodoItem item : repo.findNeedingEmbedding(owners.keySet().toArray(String[]::new), version)) {
+            if (!item.getUserId().equals(owners.get(item.getId()))) continue;
+            String text = Optional.ofNullable(item.getEmbeddingText()).orElse("");
+            if (text.isBlank()) continue; // 空文本无法向量化
+            items.add(item);
+            segments.add(TextSegment.from(text));
+        }
+        int skipped = owners.size() - items.size();
+        if (items.isEmpty()) {
+            record(jobs.size(), 0, skipped, System.nanoTime() - start);
+            log.debug("Skipped {} embed jobs, content unchanged", skipped);
+            return 0;
+        }
+
+        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+
+        List<EmbeddingUpdate> updates = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            TodoItem item = items.get(i);
+            // 直接使用模型输出的 float[]，不装箱、不转字符串
+            // metadata 不在这里写：状态 / 分类 / 优先级有独立列，内容未变而跳过推理时这里的快照会过期
+            updates.add(new EmbeddingUpdate(item.getId(), item.getUserId(), embeddings.get(i).vector(),
+                    segments.get(i).text()));
+        }
+        int updated = vectorRepo.updateEmbeddings(updates, version);
+        // 向量变化会改变语义检索结果，只使这些用户的搜索 ETag 失效（列表与首页缓存不受影响）
+        if (updated > 0) updates.stream().map(EmbeddingUpdate::userId).distinct().forEach(changeVersions::bumpSearch);
+
+        long elapsedNanos = Math.max(1, System.nanoTime() - start);
+        record(jobs.size(), updated, skipped, elapsedNanos);
+        long jobsPerSec = jobs.size() * 1_000_000_000L / elapsedNanos;
+        log.info("Embedded {} rows for {} jobs ({} unchanged) in {} ms ({} jobs/s)",
+                updated, jobs.size(), skipped, elapsedNanos / 1_000_000, jobsPerSec);
+        return updated;
+    }
+
+    /** 累计吞吐：jobs/s 按处理耗时（不含空闲等待）计算 */
+    public Map<String, Object> stats() {
+        long busy = Math.max(1, busyNanosTotal.get());
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("batches", batchesTotal.get());
+        out.put("jobs", jobsTotal.get());
+        out.put("embedded", embeddedTotal.get());
+        out.put("skippedUnchanged", skippedTotal.get());
+        out.put("busyMs", busy / 1_000_000);
+        out.put("jobsPerSec", jobsTotal.get() * 1_000_000_000L / busy);
+        return out;
+    }
+
+    private void record(int jobs, int embedded, int skipped, long elapsedNanos) {
+        batchesTotal.incrementAndGet();
+        jobsTotal.addAndGet(jobs);
+        embeddedTotal.addAndGet(embedded);
+        skippedTotal.addAndGet(skipped);
+        busyNanosTotal.addAndGet(elapsedNanos);
+    }
+}
@@ -0,0 +1,43 @@
+package cn.bitsleep.tdl.worker;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * 进程内队列模式的启动恢复扫描：上次进程退出时仍在内存中的嵌入任务已丢失，
+ * 按向量状态（缺失或与 text 哈希不一致）重新写入发件箱，由 JobOutbox 按队列容量逐批转发。
+ * 模型版本过期的行不在此处理，交给 EmbeddingBackfill。
+ */
+@Component
+@ConditionalOnProperty(name = "tdl.queue.backend", havingValue = "memory")
+@RequiredArgsConstructor
+@Slf4j
+public class EmbeddingRecovery {
+
+    private final JdbcTemplate jdbc;
+
+    private static final String RECOVER = """
+            INSERT INTO job_outbox (topic, payload)
+            SELECT 'EMBED', t.user_id || ':' || t.id
+            FROM todo_item t
+            WHERE t.status <> 2
+              AND coalesce(t.text, '') <> ''
+              AND (t.embedding IS NULL OR t.embedding_hash IS DISTINCT FROM md5(t.text))
+              AND NOT EXISTS (SELECT 1 FROM job_outbox o WHERE o.payload = t.user_id || ':' || t.id)
+            """;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recover() {
+        try {
+            int queued = jdbc.update(RECOVER);
+            if (queued > 0) log.info("Recovery scan queued {} embed jobs lost with the previous in-memory queue", queued);
+        } catch (Exception e) {
+            log.warn("Embedding recovery scan failed", e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package cn.bitsleep.tdl.worker;
+
+import cn.bitsleep.tdl.service.ChangeVersions;
+import cn.bitsleep.tdl.service.FacetCounters;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 侧边栏计数的定期校正：按 user_id 顺序每轮重算一批用户（每个用户一个事务），
+ * 修正增量维护遗漏的偏差（如手工改库、外键置空）。游标只在本节点内存中，重启后从头开始。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class FacetReconciler {
+
+    private final JdbcTemplate jdbc;
+    private final FacetCounters facetCounters;
+    private final ChangeVersions changeVersions;
+
+    @Value("${tdl.facets.reconcile.users-per-cycle:200}")
+    private int usersPerCycle;
+
+    // 以计数表本身作为用户清单（每用户只有几十行）；从未有过计数的用户在首次读取时重建
+    private static final String NEXT_USERS = """
+            SELECT DISTINCT user_id FROM todo_facet_count
+            WHERE user_id > ?
+            ORDER BY user_id
+            LIMIT ?
+            """;
+
+    private volatile String lastUserId = "";
+    private final AtomicLong usersChecked = new AtomicLong();
+    private final AtomicLong usersDrifted = new AtomicLong();
+    private volatile Map<String, Object> lastCycle = Map.of();
+
+    @Scheduled(fixedDelayString = "${tdl.facets.reconcile.interval-ms:300000}",
+            initialDelayString = "${tdl.facets.reconcile.initial-delay-ms:60000}")
+    public void scheduledReconcile() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            log.warn("Facet reconciliation failed", e);
+        }
+    }
+
+    public Map<String, Object> reconcile() {
+        long start = System.nanoTime();
+        List<String> users = jdbc.queryForList(NEXT_USERS, String.class, lastUserId, usersPerCycle);
+        int drifted = 0;
+        for (String userId : users) {
+            int drift = facetCounters.rebuild(userId);
+            if (drift > 0) {
+                drifted++;
+                changeVersions.bump(userId); // 已下发的 facets ETag 对应的是校正前的计数
+                log.info("Facet counters for user {} drifted on {} keys, rebuilt", userId, drift);
+            }
+        }
+        // 不足一批说明已扫到末尾，下一轮从头开始
+        lastUserId = users.size() < usersPerCycle ? "" : users.get(users.size() - 1);
+        usersChecked.addAndGet(users.size());
+        usersDrifted.addAndGet(drifted);
+
+        Map<String, Object> cycle = new LinkedHashMap<>();
+        cycle.put("at", Instant.now().toString());
+        cycle.put("users", users.size());
+        cycle.put("drifted", drifted);
+        cycle.put("ms", (System.nanoTime() - start) / 1_000_000);
+        lastCycle = cycle;
+        return cycle;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("usersPerCycle", usersPerCycle);
+        out.put("usersChecked", usersChecked.get());
+        out.put("usersDrifted", usersDrifted.get());
+        out.put("lastCycle", lastCycle);
+        return out;
+    }
+}
@@ -0,0 +1,99 @@
+package cn.bitsleep.tdl.worker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ONNX 推理线程池：固定线程数 + 有界队列；队列满时由提交线程自己执行（CallerRuns），
+ * 从而对消费者形成背压；已关闭后提交的任务抛出 RejectedExecutionException（调用方的 Future 不会永远挂起）。
+ * 同时按线程统计忙碌时间，用于计算每线程利用率。
+ */
+public class InferencePool extends ThreadPoolExecutor {
+
+    private final Map<String, LongAdder> busyNanos = new ConcurrentHashMap<>();
+    private final ThreadLocal<Long> taskStart = new ThreadLocal<>();
+    private final AtomicLong callerRuns = new AtomicLong();
+    private long windowStartNanos = System.nanoTime();
+    private volatile Map<String, Object> lastWindow = Map.of();
+
+    public InferencePool(int threads, int queueCapacity) {
+        super(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), new InferenceThreadFactory());
+        setRejectedExecutionHandler((task, pool) -> {
+            if (pool.isShutdown()) throw new RejectedExecutionException("Inference pool is shut down");
+            callerRuns.incrementAndGet();
+            task.run();
+        });
+        prestartAllCoreThreads();
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        taskStart.set(System.nanoTime());
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        Long start = taskStart.get();
+        if (start != null) {
+            busyNanos.computeIfAbsent(Thread.currentThread().getName(), k -> new LongAdder())
+                    .add(System.nanoTime() - start);
+            taskStart.remove();
+        }
+        super.afterExecute(r, t);
+    }
+
+    /**
+     * 结束当前统计窗口：返回窗口内每个线程的利用率（忙碌时间 / 窗口时长）并开始新窗口。
+     */
+    public synchronized Map<String, Object> rollWindow() {
+        long now = System.nanoTime();
+        long window = Math.max(1, now - windowStartNanos);
+        windowStartNanos = now;
+
+        Map<String, Double> utilization = new TreeMap<>();
+        double total = 0;
+        for (var e : busyNanos.entrySet()) {
+            double u = (double) e.getValue().sumThenReset() / window;
+            utilization.put(e.getKey(), Math.round(u * 1000) / 1000.0);
+            total += u;
+        }
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("threads", getMaximumPoolSize());
+        out.put("active", getActiveCount());
+        out.put("queued", getQueue().size());
+        out.put("completedTasks", getCompletedTaskCount());
+        out.put("callerRuns", callerRuns.get());
+        out.put("windowMs", window / 1_000_000);
+        out.put("avgUtilization", Math.round(total / getMaximumPoolSize() * 1000) / 1000.0);
+        out.put("utilization", utilization);
+        lastWindow = out;
+        return out;
+    }
+
+    public Map<String, Object> lastWindow() {
+        return lastWindow;
+    }
+
+    private static class InferenceThreadFactory implements ThreadFactory {
+        private final AtomicInteger seq = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "embed-infer-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package cn.bitsleep.tdl.worker;
+
+import cn.bitsleep.tdl.repo.TodoChangeRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * 删除墓碑的保留期清理：超过 tombstone-retention-days 的分块删除。
+ * 早于保留期的同步令牌会被 TodoChangeFeed 拒绝（410），因此清理后不会漏下发删除。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class TombstoneCleaner {
+
+    private final TodoChangeRepository repo;
+
+    @Value("${tdl.changes.tombstone-retention-days:30}")
+    private long retentionDays;
+
+    @Value("${tdl.changes.tombstone-cleanup.chunk-size:1000}")
+    private int chunkSize;
+
+    @Scheduled(fixedDelayString = "${tdl.changes.tombstone-cleanup.interval-ms:3600000}",
+            initialDelayString = "${tdl.changes.tombstone-cleanup.initial-delay-ms:120000}")
+    public void scheduledCleanup() {
+        try {
+            cleanup();
+        } catch (Exception e) {
+            log.warn("Tombstone cleanup failed", e);
+        }
+    }
+
+    public long cleanup() {
+        Instant before = repo.now().minus(Duration.ofDays(retentionDays));
+        long removed = 0;
+        int deleted;
+        do {
+            deleted = repo.purgeTombstones(before, chunkSize);
+            removed += deleted;
+        } while (deleted == chunkSize);
+        if (removed > 0) log.info("Removed {} tombstones older than {} days", removed, retentionDays);
+        return removed;
+    }
+}
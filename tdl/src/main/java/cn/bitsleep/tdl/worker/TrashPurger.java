@@ -0,0 +1,146 @@
+package cn.bitsleep.tdl.worker;
+
+import cn.bitsleep.tdl.domain.TodoStatus;
+import cn.bitsleep.tdl.service.ChangeVersions;
+import cn.bitsleep.tdl.service.FacetCounters;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 回收站清理：按 trash_purge_at 分块物理删除过期条目（status = 2 的部分索引）。
+ * 每块一条 DELETE，选行时 FOR UPDATE SKIP LOCKED，多个节点同时执行时各取不同的行；
+ * 块大小限制单条语句的锁持有时间与 WAL 量。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class TrashPurger {
+
+    private final JdbcTemplate jdbc;
+    private final RedissonClient redissonClient;
+    private final TransactionTemplate tx;
+    private final FacetCounters facetCounters;
+    private final ChangeVersions changeVersions;
+
+    @Value("${tdl.trash.purge.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${tdl.trash.purge.max-chunks-per-cycle:100}")
+    private int maxChunksPerCycle;
+
+    // todo_tag 经外键级联删除
+    private static final String PURGE_CHUNK = """
+            DELETE FROM todo_item t
+            USING (
+              SELECT id FROM todo_item
+              WHERE status = 2 AND trash_purge_at < ?
+              ORDER BY trash_purge_at
+              LIMIT ?
+              FOR UPDATE SKIP LOCKED
+            ) doomed
+            WHERE t.id = doomed.id
+            RETURNING t.user_id
+            """;
+
+    // 旧版按条目延迟投递的删除队列（RDelayedQueue 及其内部 key、过渡期的删除流）
+    private static final String[] LEGACY_KEYS = {
+            "tdl:todo:delete",
+            "redisson_delay_queue_timeout:{tdl:todo:delete}",
+            "redisson_delay_queue:{tdl:todo:delete}",
+            "tdl:todo:delete:stream",
+            "tdl:todo:delete:stream:dead"
+    };
+
+    private final AtomicLong cycles = new AtomicLong();
+    private final AtomicLong totalPurged = new AtomicLong();
+    private volatile Map<String, Object> lastCycle = Map.of();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void dropLegacyQueue() {
+        try {
+            long removed = redissonClient.getKeys().delete(LEGACY_KEYS);
+            if (removed > 0) log.info("Removed {} legacy delete-queue keys; trash is purged from the database now", removed);
+        } catch (Exception e) {
+            log.warn("Failed removing legacy delete-queue keys", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${tdl.trash.purge.interval-ms:60000}",
+            initialDelayString = "${tdl.trash.purge.initial-delay-ms:30000}")
+    public void scheduledPurge() {
+        try {
+            purge();
+        } catch (Exception e) {
+            log.warn("Trash purge failed", e);
+        }
+    }
+
+    /** 执行一轮：逐块删除直到不足一块或达到每轮块数上限 */
+    public Map<String, Object> purge() {
+        long start = System.nanoTime();
+        // trash_purge_at 为不带时区的 TIMESTAMP，按 JVM 时区写入，这里同样以 JVM 时区绑定
+        Timestamp now = Timestamp.from(Instant.now());
+        int chunks = 0;
+        long purged = 0;
+        int deleted;
+        do {
+            deleted = purgeChunk(now);
+            purged += deleted;
+            chunks++;
+        } while (deleted == chunkSize && chunks < maxChunksPerCycle);
+
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        cycles.incrementAndGet();
+        totalPurged.addAndGet(purged);
+        Map<String, Object> cycle = new LinkedHashMap<>();
+        cycle.put("at", Instant.now().toString());
+        cycle.put("purged", purged);
+        cycle.put("chunks", chunks);
+        cycle.put("ms", ms);
+        cycle.put("backlogRemaining", deleted == chunkSize);
+        lastCycle = cycle;
+        if (purged > 0) log.info("Purged {} expired trash items in {} chunks ({} ms)", purged, chunks, ms);
+        return cycle;
+    }
+
+    // 删除与回收站计数扣减在同一事务中
+    private int purgeChunk(Timestamp now) {
+        Integer n = tx.execute(status -> {
+            List<String> owners = jdbc.queryForList(PURGE_CHUNK, String.class, now, chunkSize);
+            Map<String, Integer> byUser = new TreeMap<>();
+            for (String userId : owners) byUser.merge(userId, 1, Integer::sum);
+            byUser.forEach((userId, count) -> {
+                facetCounters.subtract(userId, TodoStatus.TRASHED, count);
+                changeVersions.bump(userId);
+            });
+            return owners.size();
+        });
+        return n == null ? 0 : n;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("chunkSize", chunkSize);
+        out.put("maxChunksPerCycle", maxChunksPerCycle);
+        out.put("cycles", cycles.get());
+        out.put("totalPurged", totalPurged.get());
+        out.put("lastCycle", lastCycle);
+        return out;
+    }
+}
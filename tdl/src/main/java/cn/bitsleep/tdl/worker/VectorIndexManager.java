@@ -0,0 +1,444 @@
+package cn.bitsleep.tdl.worker;
+
+import cn.bitsleep.tdl.repo.TodoVectorRepository;
+import cn.bitsleep.tdl.repo.TodoVectorRepository.VectorMatch;
+import cn.bitsleep.tdl.repo.VectorStorage;
+import lombok.RequiredArgsConstructor;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 向量 ANN 索引生命周期：
+ * 按配置选择 HNSW（m / ef_construction）或 IVFFlat（lists 按行数自动计算），索引建在 tdl.vector.storage 指定的表示上；
+ * IVFFlat 的质心在构建时固定，数据量增长超过阈值后在后台 CONCURRENTLY 新建索引并删除旧索引；
+ * 多实例部署时通过 advisory lock 保证同一时刻只有一个节点在维护。
+ * 查询参数（probes / ef_search）依赖当前索引的类型与 lists：每个节点在启动时与每隔 sync-interval-ms
+ * 从 pg_index / pg_class 读取，不依赖自己是否抢到维护锁；其他节点完成重建后最多滞后一个同步周期。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class VectorIndexManager {
+
+    private final JdbcTemplate jdbc;
+    private final TodoVectorRepository vectorRepo;
+
+    // ivfflat | hnsw
+    @Value("${tdl.vector.index.type:ivfflat}")
+    private String indexType;
+
+    @Value("${tdl.vector.index.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${tdl.vector.index.hnsw.ef-construction:64}")
+    private int hnswEfConstruction;
+
+    // 行数不足时不建 IVFFlat（空表上聚类出的质心没有意义，小表精确扫描已足够快）
+    @Value("${tdl.vector.index.ivfflat.min-rows:1000}")
+    private long ivfflatMinRows;
+
+    // 行数达到构建时的 N 倍后重建 IVFFlat
+    @Value("${tdl.vector.index.rebuild-growth-factor:2.0}")
+    private double rebuildGrowthFactor;
+
+    @Value("${tdl.embedding.dimension:384}")
+    private int dimension;
+
+    // 召回率下限：recallReport 中低于该值的 ANN / 向量表示判为不达标，配置中的表示不达标时告警
+    @Value("${tdl.vector.min-recall:0.9}")
+    private double minRecall;
+
+    // 构建索引时的 maintenance_work_mem（如 512MB），空表示使用数据库默认值
+    @Value("${tdl.vector.index.maintenance-work-mem:}")
+    private String maintenanceWorkMem;
+
+    private static final long ADVISORY_LOCK_KEY = 0x74646c5f766563L; // "tdl_vec"
+    private static final String INDEX_PREFIX = "todo_item_embedding_";
+    private static final String LIST_INDEXES = """
+            SELECT c.relname AS name, am.amname AS method, i.indisvalid AS valid,
+                   coalesce(array_to_string(c.reloptions, ','), '') AS options,
+                   coalesce(obj_description(c.oid, 'pg_class'), '') AS note,
+                   pg_get_indexdef(c.oid) AS def, pg_relation_size(c.oid) AS bytes
+            FROM pg_index i
+            JOIN pg_class c ON c.oid = i.indexrelid
+            JOIN pg_am am ON am.oid = c.relam
+            WHERE i.indrelid = 'todo_item'::regclass AND am.amname IN ('ivfflat', 'hnsw')
+            ORDER BY c.oid DESC
+            """;
+    // 评估用的查询向量直接取已有行的向量（运维接口，ORDER BY random() 可接受）
+    private static final String SAMPLE_QUERIES = """
+            SELECT user_id, CAST(embedding AS real[]) AS v
+            FROM todo_item
+            WHERE embedding IS NOT NULL AND status <> 2
+            ORDER BY random()
+            LIMIT ?
+            """;
+
+    private volatile Map<String, Object> lastCheck = Map.of();
+
+    // 手动重建在后台线程执行（CONCURRENTLY 构建可能持续数分钟），同一时刻只允许一个
+    private final ExecutorService rebuilder = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "vector-index-rebuild");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile Future<?> rebuilding;
+
+    @Scheduled(initialDelayString = "${tdl.vector.index.initial-delay-ms:15000}",
+            fixedDelayString = "${tdl.vector.index.check-interval-ms:600000}")
+    public void maintain() {
+        try {
+            ensureIndex(false);
+        } catch (Exception e) {
+            log.warn("Vector index maintenance failed", e);
+        }
+    }
+
+    // 在 runner（预热）与 readiness 之前执行，接流量时查询参数已与现有索引一致
+    @EventListener(ApplicationStartedEvent.class)
+    public void syncOnStartup() {
+        syncFromCatalog();
+    }
+
+    /** 按数据库中现有的有效 ANN 索引更新本节点的查询参数；只读目录，不加锁 */
+    @Scheduled(initialDelayString = "${tdl.vector.index.sync-interval-ms:60000}",
+            fixedDelayString = "${tdl.vector.index.sync-interval-ms:60000}")
+    public void syncFromCatalog() {
+        try {
+            jdbc.execute((ConnectionCallback<Void>) con -> {
+                apply(listIndexes(con).stream().filter(IndexInfo::valid).findFirst().orElse(null));
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("Reading vector index state failed", e);
+        }
+    }
+
+    /** 后台强制重建；已有重建在进行时不重复提交 */
+    public synchronized Map<String, Object> requestRebuild() {
+        if (rebuilding != null && !rebuilding.isDone()) {
+            return Map.of("accepted", false, "reason", "rebuild already running", "last", lastCheck);
+        }
+        rebuilding = rebuilder.submit(() -> {
+            try {
+                Map<String, Object> result = ensureIndex(true);
+                log.info("Manual vector index rebuild finished: {}", result);
+            } catch (Exception e) {
+                log.warn("Manual vector index rebuild failed", e);
+            }
+        });
+        return Map.of("accepted", true, "last", lastCheck);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebuilder.shutdownNow();
+    }
+
+    /**
+     * 检查并在需要时重建索引。CREATE/DROP INDEX CONCURRENTLY 不能在事务内执行，
+     * 因此整个过程在同一条 autocommit 连接上完成（advisory lock 也绑定在该连接上）。
+     */
+    public Map<String, Object> ensureIndex(boolean force) {
+        return jdbc.execute((ConnectionCallback<Map<String, Object>>) con -> {
+            if (!queryBoolean(con, "SELECT pg_try_advisory_lock(" + ADVISORY_LOCK_KEY + ")")) {
+                // 另一节点在维护：仍按目录中现有的索引刷新本节点的查询参数
+                IndexInfo current = listIndexes(con).stream().filter(IndexInfo::valid).findFirst().orElse(null);
+                apply(current);
+                return Map.of("skipped", "maintenance running on another node",
+                        "index", current == null ? "none" : current.name());
+            }
+            try {
+                Map<String, Object> result = reconcile(con, force);
+                lastCheck = result;
+                return result;
+            } finally {
+                queryBoolean(con, "SELECT pg_advisory_unlock(" + ADVISORY_LOCK_KEY + ")");
+            }
+        });
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> out = new LinkedHashMap<>(lastCheck);
+        out.put("rebuilding", rebuilding != null && !rebuilding.isDone());
+        out.put("searchSettings", vectorRepo.searchSettings(10));
+        return out;
+    }
+
+    private Map<String, Object> reconcile(Connection con, boolean force) throws SQLException {
+        long rows = embeddedRows(con);
+        List<IndexInfo> indexes = listIndexes(con);
+
+        // CONCURRENTLY 构建中断会留下 INVALID 索引：不参与查询但写入仍要维护，必须删掉
+        List<IndexInfo> valid = new ArrayList<>();
+        for (IndexInfo idx : indexes) {
+            if (idx.valid()) {
+                valid.add(idx);
+            } else {
+                log.warn("Dropping invalid vector index {}", idx.name());
+                execute(con, "DROP INDEX CONCURRENTLY IF EXISTS " + idx.name());
+            }
+        }
+        IndexInfo current = valid.isEmpty() ? null : valid.get(0);
+        IndexSpec desired = desiredSpec(rows);
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("rows", rows);
+        String reason = rebuildReason(current, desired, rows, force);
+        if (reason != null) {
+            long start = System.nanoTime();
+            current = build(con, desired, rows);
+            for (IndexInfo old : valid) execute(con, "DROP INDEX CONCURRENTLY IF EXISTS " + old.name());
+            long ms = (System.nanoTime() - start) / 1_000_000;
+            log.info("Built vector index {} ({}) on ~{} rows in {} ms, reason: {}", current.name(), current.options(), rows, ms, reason);
+            out.put("rebuilt", reason);
+            out.put("buildMs", ms);
+        } else {
+            // 只保留最新的一个 ANN 索引
+            for (IndexInfo extra : valid.subList(Math.min(1, valid.size()), valid.size())) {
+                execute(con, "DROP INDEX CONCURRENTLY IF EXISTS " + extra.name());
+            }
+        }
+
+        apply(current);
+        out.put("index", current == null ? "none" : current.name());
+        out.put("method", current == null ? "none" : current.method());
+        out.put("options", current == null ? "" : current.options());
+        out.put("storage", current == null ? "none" : current.storage().name().toLowerCase());
+        out.put("indexBytes", current == null ? 0 : current.bytes());
+        out.put("builtRows", current == null ? 0 : current.builtRows());
+        out.put("checkedAt", Instant.now().toString());
+        return out;
+    }
+
+    private void apply(IndexInfo current) {
+        vectorRepo.useIndex(current == null ? "none" : current.method(), current == null ? 0 : current.option("lists"));
+    }
+
+    private IndexSpec desiredSpec(long rows) {
+        VectorStorage storage = vectorRepo.storage();
+        if ("hnsw".equalsIgnoreCase(indexType)) {
+            return new IndexSpec("hnsw", "m=" + hnswM + ",ef_construction=" + hnswEfConstruction, storage);
+        }
+        if (rows < ivfflatMinRows) return null;
+        return new IndexSpec("ivfflat", "lists=" + listsFor(rows), storage);
+    }
+
+    // pgvector 建议：100 万行以内 rows / 1000，超过后 sqrt(rows)
+    static int listsFor(long rows) {
+        long lists = rows <= 1_000_000 ? rows / 1000 : (long) Math.sqrt(rows);
+        return (int) Math.max(1, lists);
+    }
+
+    private String rebuildReason(IndexInfo current, IndexSpec desired, long rows, boolean force) {
+        if (desired == null) return null; // IVFFlat 行数不足：维持现状，无索引时走精确扫描
+        if (current == null) return "missing";
+        if (force) return "forced";
+        if (!current.method().equals(desired.method())) return "type changed to " + desired.method();
+        if (current.storage() != desired.storage()) return "storage changed to " + desired.storage().name().toLowerCase();
+        if (desired.method().equals("hnsw")) {
+            // HNSW 增量维护图结构，只有参数变化才需要重建
+            return current.options().equals(desired.options()) ? null : "parameters changed";
+        }
+        // 未记录构建行数的旧索引（schema.sql 早期在空表上创建的 lists=100）视为 0，重建一次
+        long builtRows = current.builtRows();
+        if (rows >= builtRows * rebuildGrowthFactor) return "rows grew from " + builtRows + " to " + rows;
+        return null;
+    }
+
+    private IndexInfo build(Connection con, IndexSpec spec, long rows) throws SQLException {
+        String name = INDEX_PREFIX + spec.method() + "_" + System.currentTimeMillis();
+        if (!maintenanceWorkMem.isBlank()) {
+            execute(con, "SET maintenance_work_mem = '" + maintenanceWorkMem.replace("'", "") + "'");
+        }
+        try {
+            execute(con, "CREATE INDEX CONCURRENTLY " + name + " ON todo_item USING " + spec.method()
+                    + " (" + spec.storage().indexColumn(dimension) + ") WITH (" + spec.options() + ")");
+        } finally {
+            if (!maintenanceWorkMem.isBlank()) execute(con, "RESET maintenance_work_mem");
+        }
+        String note = "rows=" + rows;
+        execute(con, "COMMENT ON INDEX " + name + " IS '" + note + "'");
+        long bytes = queryLong(con, "SELECT pg_relation_size('" + name + "'::regclass)");
+        return new IndexInfo(name, spec.method(), true, spec.options(), note, spec.storage(), bytes);
+    }
+
+    // 大表用 planner 估算（含未向量化的行），避免每次检查都全表 count
+    private long embeddedRows(Connection con) throws SQLException {
+        long estimate = queryLong(con, "SELECT GREATEST(reltuples, 0)::bigint FROM pg_class WHERE oid = 'todo_item'::regclass");
+        if (estimate >= 100_000) return estimate;
+        return queryLong(con, "SELECT count(*) FROM todo_item WHERE embedding IS NOT NULL");
+    }
+
+    private List<IndexInfo> listIndexes(Connection con) throws SQLException {
+        List<IndexInfo> out = new ArrayList<>();
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery(LIST_INDEXES)) {
+            while (rs.next()) {
+                out.add(new IndexInfo(rs.getString("name"), rs.getString("method"), rs.getBoolean("valid"),
+                        rs.getString("options"), rs.getString("note"),
+                        VectorStorage.fromIndexDefinition(rs.getString("def")), rs.getLong("bytes")));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * 召回率 / 延迟报告：随机取已有行的向量作为查询，分别走 ANN（当前索引 + 按 k 调整的 probes/ef_search）
+     * 与精确扫描，recall@k = |ANN ∩ 精确| / |精确|。
+     * storageComparison 为各向量表示不走索引（候选 + 全精度重排）时的 recall@k，即只看量化本身的损失。
+     * 平均召回率低于 tdl.vector.min-recall 的项列入 failing；当前索引（ann）或配置的 tdl.vector.storage
+     * 不达标时 pass = false 并告警：应调大 rerank-factor / probes，或换回更精确的表示。
+     */
+    public Map<String, Object> recallReport(int samples, int k) {
+        List<Sample> queries = jdbc.query(SAMPLE_QUERIES,
+                (rs, i) -> new Sample(rs.getString("user_id"), toFloats(rs.getArray("v"))), samples);
+
+        Map<VectorStorage, Double> storageRecall = new LinkedHashMap<>();
+        double recallSum = 0;
+        double recallMin = 1;
+        long[] annNanos = new long[queries.size()];
+        long[] exactNanos = new long[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            Sample q = queries.get(i);
+            long t0 = System.nanoTime();
+            List<VectorMatch> ann = vectorRepo.searchNearest(q.userId(), q.vector(), k);
+            long t1 = System.nanoTime();
+            List<VectorMatch> exact = vectorRepo.searchExact(q.userId(), q.vector(), k);
+            long t2 = System.nanoTime();
+            annNanos[i] = t1 - t0;
+            exactNanos[i] = t2 - t1;
+
+            Set<String> truth = new HashSet<>();
+            exact.forEach(m -> truth.add(m.id()));
+            long hits = ann.stream().filter(m -> truth.contains(m.id())).count();
+            double recall = truth.isEmpty() ? 1.0 : (double) hits / truth.size();
+            recallSum += recall;
+            recallMin = Math.min(recallMin, recall);
+
+            for (VectorStorage s : List.of(VectorStorage.HALFVEC, VectorStorage.BINARY)) {
+                long sHits = vectorRepo.searchBruteForce(s, q.userId(), q.vector(), k).stream()
+                        .filter(m -> truth.contains(m.id())).count();
+                storageRecall.merge(s, truth.isEmpty() ? 1.0 : (double) sHits / truth.size(), Double::sum);
+            }
+        }
+
+        double annRecall = queries.isEmpty() ? 0.0 : round(recallSum / queries.size());
+        List<String> failing = new ArrayList<>();
+        if (!queries.isEmpty() && annRecall < minRecall) failing.add("ann");
+        Map<String, Object> storageComparison = new LinkedHashMap<>();
+        storageComparison.put("full", Map.of("bytesPerVector", 4 * dimension, "recall", 1.0, "meetsMinRecall", true));
+        storageRecall.forEach((s, sum) -> {
+            double recall = round(sum / queries.size());
+            if (recall < minRecall) failing.add(s.name().toLowerCase());
+            storageComparison.put(s.name().toLowerCase(), Map.of(
+                    "bytesPerVector", s == VectorStorage.HALFVEC ? 2 * dimension : (dimension + 7) / 8,
+                    "recall", recall,
+                    "meetsMinRecall", recall >= minRecall));
+        });
+        String configured = vectorRepo.storage().name().toLowerCase();
+        boolean pass = !failing.contains("ann") && !failing.contains(configured);
+        if (!pass) {
+            log.warn("Vector recall@{} below {} for {} (configured storage {}, rerank-factor {})",
+                    k, minRecall, failing, configured, vectorRepo.rerankFactor());
+        }
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("samples", queries.size());
+        out.put("k", k);
+        out.put("index", lastCheck);
+        out.put("searchSettings", vectorRepo.searchSettings(k));
+        out.put("recallMean", annRecall);
+        out.put("recallMin", queries.isEmpty() ? 0.0 : round(recallMin));
+        out.put("annP50Ms", percentileMs(annNanos, 0.50));
+        out.put("annP95Ms", percentileMs(annNanos, 0.95));
+        out.put("exactP50Ms", percentileMs(exactNanos, 0.50));
+        out.put("exactP95Ms", percentileMs(exactNanos, 0.95));
+        out.put("storageComparison", storageComparison);
+        out.put("minRecall", minRecall);
+        out.put("storage", configured);
+        out.put("rerankFactor", vectorRepo.rerankFactor());
+        out.put("failing", failing);
+        out.put("pass", pass);
+        return out;
+    }
+
+    private static float[] toFloats(Array array) throws SQLException {
+        Float[] boxed = (Float[]) array.getArray();
+        float[] out = new float[boxed.length];
+        for (int i = 0; i < boxed.length; i++) out[i] = boxed[i];
+        return out;
+    }
+
+    private static double percentileMs(long[] nanos, double p) {
+        if (nanos.length == 0) return 0.0;
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        int idx = Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1);
+        return round(sorted[Math.max(0, idx)] / 1_000_000.0);
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 1000) / 1000.0;
+    }
+
+    private static void execute(Connection con, String sql) throws SQLException {
+        try (Statement st = con.createStatement()) {
+            st.execute(sql);
+        }
+    }
+
+    private static long queryLong(Connection con, String sql) throws SQLException {
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0L;
+        }
+    }
+
+    private static boolean queryBoolean(Connection con, String sql) throws SQLException {
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    private record IndexSpec(String method, String options, VectorStorage storage) {}
+
+    private record IndexInfo(String name, String method, boolean valid, String options, String note,
+                             VectorStorage storage, long bytes) {
+        int option(String key) {
+            for (String kv : options.split(",")) {
+                String[] parts = kv.split("=", 2);
+                if (parts.length == 2 && parts[0].trim().equals(key)) return Integer.parseInt(parts[1].trim());
+            }
+            return 0;
+        }
+
+        long builtRows() {
+            return note.startsWith("rows=") ? Long.parseLong(note.substring(5)) : 0L;
+        }
+    }
+
+    private record Sample(String userId, float[] vector) {}
+}
@@ -0,0 +1,188 @@
+package cn.bitsleep.tdl.worker;
+
+import cn.bitsleep.tdl.queue.Job;
+import cn.bitsleep.tdl.queue.JobQueue;
+import cn.bitsleep.tdl.queue.StreamJobQueue;
+import cn.bitsleep.tdl.queue.Topic;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 事件驱动的消费运行时：每个队列若干常驻消费线程，阻塞读取等待，任务写入即被处理；
+ * 空闲时每个线程只有一个挂起的阻塞命令（Redis 为 XREAD BLOCK，每 block-ms 续一次）。
+ * 启动时另有一个一次性线程把旧版 RQueue 中遗留的嵌入任务搬进流，搬空即退出。
+ * 随 Spring 上下文启停：停止时不再读取新任务，唤醒阻塞中的线程，并等待处理中的任务完成。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class WorkerRuntime implements SmartLifecycle {
+
+    private final JobQueue jobQueue;
+    private final Workers workers;
+
+    @Value("${tdl.worker.embed.consumers:2}")
+    private int embedConsumers;
+
+    @Value("${tdl.worker.block-ms:5000}")
+    private long blockMs;
+
+    @Value("${tdl.worker.shutdown-timeout-ms:30000}")
+    private long shutdownTimeoutMs;
+
+    @Value("${tdl.embedding.batch.size:32}")
+    private int embedBatchSize;
+
+    // > 0 时读到第一批后继续等待补齐；默认 0：有多少取多少立即处理（负载高时一次读取自然成批）
+    @Value("${tdl.embedding.batch.max-wait-ms:0}")
+    private long embedBatchMaxWaitMs;
+
+    private static final int LEGACY_DRAIN_BATCH = 1000;
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    private final List<Thread> threads = new ArrayList<>();
+    // 正阻塞在 Redis 读取上的线程：停止时只中断这些，不打断处理中的任务
+    private final Set<Thread> blocked = new HashSet<>();
+    private volatile boolean running;
+
+    @Override
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        for (int i = 1; i <= embedConsumers; i++) spawn("embed-consumer-" + i, this::consumeEmbed);
+        if (jobQueue instanceof StreamJobQueue redis) drainLegacyQueue(redis);
+        log.info("Worker runtime started: {} embed consumers", embedConsumers);
+    }
+
+    @Override
+    public void stop() {
+        List<Thread> toJoin;
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            toJoin = new ArrayList<>(threads);
+            threads.clear();
+        }
+        synchronized (blocked) {
+            blocked.forEach(Thread::interrupt);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMs);
+        for (Thread t : toJoin) {
+            try {
+                t.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (t.isAlive()) log.warn("Worker thread {} did not finish within {} ms", t.getName(), shutdownTimeoutMs);
+        }
+        log.info("Worker runtime stopped");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void consumeEmbed() throws InterruptedException {
+        List<Job> batch = new ArrayList<>(awaitRead(() -> jobQueue.read(Topic.EMBED, embedBatchSize, blockMs)));
+        if (batch.isEmpty()) return;
+        // 可选攒批：在 maxWait 内继续阻塞读取补齐
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(embedBatchMaxWaitMs);
+        long remainingMs;
+        while (running && batch.size() < embedBatchSize
+                && (remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) > 0) {
+            int want = embedBatchSize - batch.size();
+            long wait = remainingMs;
+            batch.addAll(awaitRead(() -> jobQueue.read(Topic.EMBED, want, wait)));
+        }
+        workers.handleEmbedBatch(batch);
+    }
+
+    // 滚动发布期间旧节点在此之后写入旧队列的任务由旧节点自己消费；
+    // 旧节点全部下线前没消费完的，由之后任一节点重启时的这次搬运接走
+    private void drainLegacyQueue(StreamJobQueue redis) {
+        Thread t = new Thread(() -> {
+            try {
+                int moved;
+                do {
+                    moved = redis.migrateLegacyEmbedQueue(LEGACY_DRAIN_BATCH);
+                } while (running && moved > 0);
+            } catch (Exception e) {
+                log.warn("Draining the legacy embed queue failed; leftover jobs move on next startup", e);
+            }
+        }, "legacy-embed-drain");
+        t.setDaemon(true);
+        threads.add(t);
+        t.start();
+    }
+
+    // 阻塞读取期间登记为可中断；返回后清除中断标记，读到的任务照常处理完再退出
+    private <T> T awaitRead(BlockingRead<T> read) throws InterruptedException {
+        Thread self = Thread.currentThread();
+        synchronized (blocked) {
+            if (!running) throw new InterruptedException("worker runtime stopping");
+            blocked.add(self);
+        }
+        try {
+            return read.call();
+        } finally {
+            synchronized (blocked) {
+                blocked.remove(self);
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void spawn(String name, Step step) {
+        Thread t = new Thread(() -> {
+            long backoffMs = 0;
+            while (running) {
+                try {
+                    step.run();
+                    backoffMs = 0;
+                } catch (InterruptedException e) {
+                    if (!running) break;
+                } catch (Exception e) {
+                    if (!running) break;
+                    // Redis 不可用等情况下指数退避，避免空转刷日志
+                    backoffMs = Math.min(MAX_BACKOFF_MS, Math.max(500, backoffMs * 2));
+                    log.warn("Worker {} failed, retrying in {} ms", name, backoffMs, e);
+                    sleep(backoffMs);
+                }
+            }
+        }, name);
+        t.setDaemon(true);
+        threads.add(t);
+        t.start();
+    }
+
+    // 分段睡眠，停止时不必等满退避时间
+    private void sleep(long ms) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ms);
+        try {
+            while (running && System.nanoTime() < deadline) Thread.sleep(Math.min(ms, 200));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface BlockingRead<T> {
+        T call() throws InterruptedException;
+    }
+}
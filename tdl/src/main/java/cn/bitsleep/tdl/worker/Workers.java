@@ -1,26 +1,21 @@
 package cn.bitsleep.tdl.worker;
 
-import cn.bitsleep.tdl.domain.TodoStatus;
-import cn.bitsleep.tdl.repo.TodoItemRepository;
-import dev.langchain4j.data.document.Metadata;
-import dev.langchain4j.data.embedding.Embedding;
-import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.store.embedding.EmbeddingStore;
-import jakarta.transaction.Transactional;
+import cn.bitsleep.tdl.queue.Job;
+import cn.bitsleep.tdl.queue.JobQueue;
+import cn.bitsleep.tdl.queue.Topic;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RQueue;
-import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.time.Instant;
-import java.util.Optional;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @Component
 @EnableScheduling
@@ -28,87 +23,93 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 @Slf4j
 public class Workers {
 
-    private final RedissonClient redissonClient;
-    private final TodoItemRepository repo;
-    private final EmbeddingModel embeddingModel;
-    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final JobQueue jobQueue;
+    private final EmbeddingPipeline embeddingPipeline;
+    private final InferencePool inferencePool;
 
-    private static final String DELETE_QUEUE = "tdl:todo:delete";
-    private static final String EMBED_QUEUE = "tdl:todo:embed";
-    private static final ObjectMapper MAPPER = new ObjectMapper();
+    @Value("${tdl.queue.claim-idle-ms:60000}")
+    private long claimIdleMs;
 
-    // Poll delete queue periodically and perform physical delete if still trashed
-    @Scheduled(fixedDelay = 1000)
-    @Transactional
-    public void consumeDeleteQueue() {
-        RQueue<String> queue = redissonClient.getQueue(DELETE_QUEUE);
-        String job;
-        while ((job = queue.poll()) != null) {
-            try {
-                String[] parts = job.split(":", 2);
-                String userId = parts[0];
-                String id = parts[1];
-                var opt = repo.findById(id);
-                if (opt.isPresent()) {
-                    var item = opt.get();
-                    if (userId.equals(item.getUserId()) && item.getStatus() == TodoStatus.TRASHED
-                            && item.getTrashPurgeAt() != null && Instant.now().isAfter(item.getTrashPurgeAt())) {
-                        repo.hardDelete(id, userId);
-                        log.info("Hard deleted todo {} for user {}", id, userId);
-                    } else {
-                        log.info("Skip hard delete for {}, status={} purgeAt={}", id, item.getStatus(), item.getTrashPurgeAt());
-                    }
-                }
-            } catch (Exception e) {
-                log.warn("Failed processing delete job {}", job, e);
+    // 本节点没有未确认任务时，多久做一次全量认领（接手宕机节点留下的任务）
+    @Value("${tdl.queue.orphan-reclaim-interval-ms:300000}")
+    private long orphanReclaimIntervalMs;
+
+    private static final int RECLAIM_MAX = 100;
+
+    // 本节点处理失败、未确认的任务 id -> 失败时间（nanoTime）
+    private final Map<String, Long> unacked = new ConcurrentHashMap<>();
+    private volatile long lastFullReclaimNanos;
+    private volatile boolean fullReclaimDone;
+
+    /**
+     * 认领失败未确认或宿主节点已宕机的任务重试（超过投递上限的进入死信流）。
+     * 只有本节点有空闲超过 claim-idle-ms 的失败任务时才查询 pending（XPENDING）；
+     * 否则只在启动后与每 orphan-reclaim-interval-ms 做一次，空闲节点不会每个周期都访问 Redis。
+     */
+    @Scheduled(fixedDelayString = "${tdl.queue.reclaim-interval-ms:15000}",
+            initialDelayString = "${tdl.queue.reclaim-interval-ms:15000}")
+    public void reclaimPending() {
+        long now = System.nanoTime();
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(claimIdleMs);
+        boolean localDue = unacked.values().stream().anyMatch(failedAt -> now - failedAt >= idleNanos);
+        boolean orphanDue = !fullReclaimDone
+                || now - lastFullReclaimNanos >= TimeUnit.MILLISECONDS.toNanos(orphanReclaimIntervalMs);
+        if (!localDue && !orphanDue) return;
+        try {
+            List<Job> jobs = jobQueue.reclaim(Topic.EMBED, RECLAIM_MAX);
+            if (orphanDue) {
+                fullReclaimDone = true;
+                lastFullReclaimNanos = now;
+            }
+            // 已到认领时限却没被取回的本地失败任务：已由其他节点认领或转入死信，不再跟踪
+            Set<String> reclaimed = new HashSet<>();
+            jobs.forEach(job -> reclaimed.add(job.id()));
+            unacked.entrySet().removeIf(e -> now - e.getValue() >= idleNanos && !reclaimed.contains(e.getKey()));
+            for (Job job : jobs) {
+                handleEmbedBatch(List.of(job));
             }
+        } catch (Exception e) {
+            log.warn("Failed reclaiming pending jobs", e);
         }
     }
 
-    // Poll embedding queue and update embedding via EmbeddingStore
-    @Scheduled(fixedDelay = 500)
-    @Transactional
-    public void consumeEmbeddingQueue() {
-        RQueue<String> queue = redissonClient.getQueue(EMBED_QUEUE);
-        String job;
-        while ((job = queue.poll()) != null) {
-            try {
-                String[] parts = job.split(":", 2);
-                String userId = parts[0];
-                String id = parts[1];
-                var opt = repo.findById(id);
-                if (opt.isEmpty()) continue;
-                var item = opt.get();
-                String text = Optional.ofNullable(item.getEmbeddingText()).orElse("");
-                var result = embeddingModel.embed(text);
-                Embedding embedding = result.content();
-
-                // build metadata JSON safely (skip nulls)
-                Map<String, Object> md = new HashMap<>();
-                md.put("userId", userId);
-                md.put("status", item.getStatus() != null ? item.getStatus().name() : null);
-                if (item.getCategoryId() != null) md.put("categoryId", item.getCategoryId());
-                if (item.getPriorityLabel() != null) md.put("priority", item.getPriorityLabel());
-
-                String vecLiteral = toVectorLiteral(embedding.vectorAsList());
-                String mdJson = MAPPER.writeValueAsString(md);
-                repo.updateEmbedding(id, userId, vecLiteral, text, mdJson);
-            } catch (Exception e) {
-                log.warn("Failed processing embed job {}", job, e);
+    // 消费循环见 WorkerRuntime
+    void handleEmbedBatch(List<Job> batch) {
+        try {
+            embeddingPipeline.process(payloads(batch));
+            jobQueue.ack(Topic.EMBED, batch);
+            batch.forEach(job -> unacked.remove(job.id()));
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                log.warn("Failed processing embed job {} (delivery {})", batch.get(0).payload(), batch.get(0).deliveries(), e);
+                unacked.put(batch.get(0).id(), System.nanoTime());
+                return;
+            }
+            log.warn("Failed processing embed batch of {} jobs, retrying one by one", batch.size(), e);
+            // 整批失败时逐条重试，避免单条坏数据拖垮整批；仍失败的不确认，等待 reclaimPending
+            for (Job job : batch) {
+                try {
+                    embeddingPipeline.process(List.of(job.payload()));
+                    jobQueue.ack(Topic.EMBED, List.of(job));
+                    unacked.remove(job.id());
+                } catch (Exception ex) {
+                    log.warn("Failed processing embed job {} (delivery {})", job.payload(), job.deliveries(), ex);
+                    unacked.put(job.id(), System.nanoTime());
+                }
             }
         }
     }
 
-    private String toVectorLiteral(java.util.List<Float> values) {
-        StringBuilder sb = new StringBuilder();
-        sb.append('[');
-        for (int i = 0; i < values.size(); i++) {
-            if (i > 0) sb.append(',');
-            float v = values.get(i);
-            // format compactly
-            sb.append(Double.toString(v));
+    // 定期输出推理线程池的每线程利用率（无推理时不打印）
+    @Scheduled(fixedDelayString = "${tdl.embedding.pool.report-interval-ms:60000}")
+    public void reportInferencePool() {
+        Map<String, Object> window = inferencePool.rollWindow();
+        if (((Number) window.get("avgUtilization")).doubleValue() > 0) {
+            log.info("Inference pool utilization: {}", window);
         }
-        sb.append(']');
-        return sb.toString();
+    }
+
+    private static List<String> payloads(List<Job> jobs) {
+        return jobs.stream().map(Job::payload).toList();
     }
 }
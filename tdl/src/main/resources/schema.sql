@@ -32,6 +32,11 @@ ALTER TABLE todo_item ADD COLUMN IF NOT EXISTS metadata JSONB;
 ALTER TABLE todo_item ADD COLUMN IF NOT EXISTS trash_purge_at TIMESTAMP NULL;
 ALTER TABLE todo_item ADD COLUMN IF NOT EXISTS embedding_id TEXT;
 ALTER TABLE todo_item ADD COLUMN IF NOT EXISTS priority_level_id TEXT;
+-- md5(text) at the time the current embedding was computed; lets the worker skip unchanged content
+ALTER TABLE todo_item ADD COLUMN IF NOT EXISTS embedding_hash TEXT;
+-- model + text format that produced the embedding (see EmbeddingVersion); rows embedded before versioning used all-MiniLM-L6-v2 fp32
+ALTER TABLE todo_item ADD COLUMN IF NOT EXISTS embedding_model_version TEXT;
+UPDATE todo_item SET embedding_model_version = 'all-minilm-l6-v2@t1' WHERE embedding IS NOT NULL AND embedding_model_version IS NULL;
 UPDATE todo_item SET embedding_id = id WHERE embedding_id IS NULL;
 CREATE UNIQUE INDEX IF NOT EXISTS idx_todo_item_embedding_id ON todo_item(embedding_id);
 
@@ -44,10 +49,29 @@ BEGIN
 END;
 $$ LANGUAGE plpgsql;
 
+-- todo_item 的 updated_at 是增量同步（GET /api/todos/changes）的水位线：插入也以数据库时钟为准；
+-- 只写回向量 / 检索文本等客户端不可见的列时保持不变，避免每次嵌入写回都把条目重新下发一遍
+CREATE OR REPLACE FUNCTION set_todo_item_updated_at()
+RETURNS TRIGGER AS $$
+BEGIN
+  IF TG_OP = 'UPDATE' AND
+     (NEW.title, NEW.description, NEW.priority_score, NEW.priority_label, NEW.category_id,
+      NEW.priority_level_id, NEW.status, NEW.trash_purge_at, NEW.version)
+     IS NOT DISTINCT FROM
+     (OLD.title, OLD.description, OLD.priority_score, OLD.priority_label, OLD.category_id,
+      OLD.priority_level_id, OLD.status, OLD.trash_purge_at, OLD.version) THEN
+    NEW.updated_at = OLD.updated_at;
+  ELSE
+    NEW.updated_at = NOW();
+  END IF;
+  RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
 DROP TRIGGER IF EXISTS tg_todo_item_updated_at ON todo_item;
 CREATE TRIGGER tg_todo_item_updated_at
-BEFORE UPDATE ON todo_item
-FOR EACH ROW EXECUTE FUNCTION set_updated_at();
+BEFORE INSERT OR UPDATE ON todo_item
+FOR EACH ROW EXECUTE FUNCTION set_todo_item_updated_at();
 
 -- Keep embedding_id in sync with id
 CREATE OR REPLACE FUNCTION set_embedding_id()
@@ -67,18 +91,21 @@ CREATE INDEX IF NOT EXISTS idx_todo_item_user_created_id ON todo_item (user_id,
 CREATE INDEX IF NOT EXISTS idx_todo_item_user_priority_id ON todo_item (user_id, priority_score DESC, id DESC);
 CREATE INDEX IF NOT EXISTS idx_todo_item_text_trgm ON todo_item USING GIN (title gin_trgm_ops, description gin_trgm_ops);
 CREATE INDEX IF NOT EXISTS idx_todo_item_metadata_gin ON todo_item USING GIN (metadata);
-CREATE INDEX IF NOT EXISTS idx_todo_item_user_priority_level ON todo_item (user_id, priority_level_id);
+-- 按优先级 / 分类筛选的列表（TodoListRepository）：等值列在前、排序列在后，两种排序各一个，可按索引顺序直接取一页；
+-- 两个条件同时出现时用其中之一再过滤另一列
+CREATE INDEX IF NOT EXISTS idx_todo_item_user_level_created ON todo_item (user_id, priority_level_id, created_at DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_todo_item_user_level_priority ON todo_item (user_id, priority_level_id, priority_score DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_todo_item_user_category_created ON todo_item (user_id, category_id, created_at DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_todo_item_user_category_priority ON todo_item (user_id, category_id, priority_score DESC, id DESC);
+-- (user_id, priority_level_id) 是 idx_todo_item_user_level_created 的前缀，不再单独维护
+DROP INDEX IF EXISTS idx_todo_item_user_priority_level;
+-- 回收站清理（TrashPurger）：只索引回收站中的行
+CREATE INDEX IF NOT EXISTS idx_todo_item_trash_purge ON todo_item (trash_purge_at) WHERE status = 2;
+-- 增量同步：按 (updated_at, id) 水位线顺序读取某用户的变更（id 按 "C" 规则排序，与同步令牌的比较方式一致）
+CREATE INDEX IF NOT EXISTS idx_todo_item_user_updated_id ON todo_item (user_id, updated_at, id COLLATE "C");
 
--- Vector index (IVFFlat) for fast ANN, requires ANALYZE after sufficient rows
-DO $$
-BEGIN
-  IF NOT EXISTS (
-      SELECT 1 FROM pg_class c JOIN pg_namespace n ON n.oid=c.relnamespace
-      WHERE c.relname = 'todo_item_embedding_ivfflat'
-  ) THEN
-      EXECUTE 'CREATE INDEX todo_item_embedding_ivfflat ON todo_item USING ivfflat (embedding vector_cosine_ops) WITH (lists = 100)';
-  END IF;
-END$$;
+-- Vector ANN index (IVFFlat / HNSW) is created and rebuilt at runtime by VectorIndexManager:
+-- IVFFlat lists depend on row count, so it cannot be fixed here on an empty table
 
 -- ===================== 用户级优先级层级表 =====================
 -- 使用 rank BIGINT 稀疏分配（初始间隔 1_000_000），插入时若 gap 不足触发整体重排
@@ -132,3 +159,64 @@ ALTER TABLE todo_tag
 ALTER TABLE todo_tag
   ADD CONSTRAINT fk_todo_tag_tag FOREIGN KEY (tag_id) REFERENCES tag(id) ON DELETE CASCADE;
 
+-- ===================== 向量回填任务 =====================
+-- 每个目标版本一行；last_id 为 checkpoint（按 id 顺序扫描），owner/lease_until 保证多实例下只有一个节点在执行
+CREATE TABLE IF NOT EXISTS embedding_backfill (
+  id TEXT PRIMARY KEY,                -- 目标版本
+  status TEXT NOT NULL,               -- RUNNING / PAUSED / DONE / FAILED
+  last_id TEXT NOT NULL DEFAULT '',
+  processed BIGINT NOT NULL DEFAULT 0,
+  embedded BIGINT NOT NULL DEFAULT 0,
+  total_estimate BIGINT NOT NULL DEFAULT 0,
+  owner TEXT,
+  lease_until TIMESTAMP,
+  error TEXT,
+  started_at TIMESTAMP NOT NULL DEFAULT NOW(),
+  updated_at TIMESTAMP NOT NULL DEFAULT NOW(),
+  finished_at TIMESTAMP
+);
+
+-- ===================== 任务发件箱 =====================
+-- 与业务写入同一事务落库，JobOutbox 在提交后批量转发到 Redis Stream 并删除
+CREATE TABLE IF NOT EXISTS job_outbox (
+  id BIGSERIAL PRIMARY KEY,
+  topic TEXT NOT NULL,
+  payload TEXT NOT NULL,
+  created_at TIMESTAMP NOT NULL DEFAULT NOW()
+);
+
+-- ===================== 侧边栏计数 =====================
+-- 每用户按 facet（status / category / priorityLevel / tag）与 key 计数，由 FacetCounters 在写路径上增量维护，
+-- FacetReconciler 定期按明细重算校正；facet = '_' 为已初始化标记行
+CREATE TABLE IF NOT EXISTS todo_facet_count (
+  user_id TEXT NOT NULL,
+  facet TEXT NOT NULL,
+  key TEXT NOT NULL,
+  count BIGINT NOT NULL DEFAULT 0,
+  PRIMARY KEY (user_id, facet, key)
+);
+
+-- ===================== 删除墓碑 =====================
+-- 彻底删除的条目（回收站清理、purge）留下 id 与删除时间，供增量同步下发删除；
+-- 由触发器写入，覆盖所有删除路径；超过保留期的由 TombstoneCleaner 清理，更早的同步令牌需全量重拉
+CREATE TABLE IF NOT EXISTS todo_tombstone (
+  todo_id TEXT PRIMARY KEY,
+  user_id TEXT NOT NULL,
+  deleted_at TIMESTAMP NOT NULL DEFAULT NOW()
+);
+CREATE INDEX IF NOT EXISTS idx_todo_tombstone_user_deleted ON todo_tombstone (user_id, deleted_at, todo_id COLLATE "C");
+CREATE INDEX IF NOT EXISTS idx_todo_tombstone_deleted ON todo_tombstone (deleted_at);
+
+CREATE OR REPLACE FUNCTION record_todo_tombstone()
+RETURNS TRIGGER AS $$
+BEGIN
+  INSERT INTO todo_tombstone (todo_id, user_id, deleted_at) VALUES (OLD.id, OLD.user_id, NOW())
+  ON CONFLICT (todo_id) DO UPDATE SET deleted_at = EXCLUDED.deleted_at;
+  RETURN OLD;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS tg_todo_item_tombstone ON todo_item;
+CREATE TRIGGER tg_todo_item_tombstone
+AFTER DELETE ON todo_item
+FOR EACH ROW EXECUTE FUNCTION record_todo_tombstone();
@@ -0,0 +1,113 @@
+package cn.bitsleep.tdl.queue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InMemoryJobQueueTest {
+
+    private InMemoryJobQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        queue = new InMemoryJobQueue();
+        ReflectionTestUtils.setField(queue, "capacity", 4);
+        // 空闲 0ms：未 ack 的任务立即可被重新认领
+        ReflectionTestUtils.setField(queue, "claimIdleMs", 0L);
+        ReflectionTestUtils.setField(queue, "maxDeliveries", 2);
+        ReflectionTestUtils.setField(queue, "deadLetterMaxLen", 10);
+        queue.init();
+    }
+
+    @Test
+    void coalescesWaitingAndDuplicateJobs() throws Exception {
+        queue.enqueueAll(Topic.EMBED, List.of("u1:a", "u1:b", "u1:a"));
+        queue.enqueueAll(Topic.EMBED, List.of("u1:b", "u1:c"));
+
+        List<Job> jobs = queue.read(Topic.EMBED, 10, 0);
+
+        assertThat(payloads(jobs)).containsExactly("u1:a", "u1:b", "u1:c");
+        assertThat(topicStats()).containsEntry("enqueued", 3L);
+    }
+
+    @Test
+    void jobReadForProcessingCanBeQueuedAgain() throws Exception {
+        queue.enqueueAll(Topic.EMBED, List.of("u1:a"));
+        queue.read(Topic.EMBED, 10, 0);
+
+        // 处理期间的新编辑需要再处理一次
+        queue.enqueueAll(Topic.EMBED, List.of("u1:a"));
+
+        assertThat(payloads(queue.read(Topic.EMBED, 10, 0))).containsExactly("u1:a");
+    }
+
+    @Test
+    void fullBufferRejectsWholeBatch() throws Exception {
+        queue.enqueueAll(Topic.EMBED, List.of("a", "b", "c"));
+
+        assertThatThrownBy(() -> queue.enqueueAll(Topic.EMBED, List.of("d", "e")))
+                .isInstanceOf(QueueFullException.class);
+        // 已在缓冲中的重复任务不占容量
+        queue.enqueueAll(Topic.EMBED, List.of("a", "d"));
+
+        assertThat(payloads(queue.read(Topic.EMBED, 10, 0))).containsExactly("a", "b", "c", "d");
+    }
+
+    @Test
+    void ackedJobsAreNotReclaimed() throws Exception {
+        queue.enqueueAll(Topic.EMBED, List.of("a", "b"));
+        List<Job> jobs = queue.read(Topic.EMBED, 10, 0);
+
+        queue.ack(Topic.EMBED, jobs.subList(0, 1));
+        List<Job> retry = queue.reclaim(Topic.EMBED, 10);
+
+        assertThat(payloads(retry)).containsExactly("b");
+        assertThat(retry.get(0).deliveries()).isEqualTo(2L);
+        assertThat(retry.get(0).id()).isEqualTo(jobs.get(1).id());
+        assertThat(queue.backlog(Topic.EMBED)).isEqualTo(1L);
+    }
+
+    @Test
+    void deadLettersAfterMaxDeliveries() throws Exception {
+        queue.enqueueAll(Topic.EMBED, List.of("a"));
+        queue.read(Topic.EMBED, 10, 0);
+
+        assertThat(queue.reclaim(Topic.EMBED, 10)).hasSize(1);
+        assertThat(queue.reclaim(Topic.EMBED, 10)).isEmpty();
+
+        Map<String, Object> stats = topicStats();
+        assertThat(stats).containsEntry("deadLetters", 1);
+        assertThat(stats).containsEntry("deadLettered", 1L);
+        assertThat(stats).containsEntry("reclaimed", 1L);
+        assertThat(stats).containsEntry("pending", 0);
+        assertThat(queue.backlog(Topic.EMBED)).isZero();
+    }
+
+    @Test
+    void deadLettersAreBounded() throws Exception {
+        ReflectionTestUtils.setField(queue, "maxDeliveries", 1);
+        ReflectionTestUtils.setField(queue, "deadLetterMaxLen", 2);
+        queue.enqueueAll(Topic.EMBED, List.of("a", "b", "c"));
+        queue.read(Topic.EMBED, 10, 0);
+
+        assertThat(queue.reclaim(Topic.EMBED, 10)).isEmpty();
+
+        assertThat(topicStats()).containsEntry("deadLetters", 2);
+        assertThat(topicStats()).containsEntry("deadLettered", 3L);
+    }
+
+    private static List<String> payloads(List<Job> jobs) {
+        return jobs.stream().map(Job::payload).toList();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> topicStats() {
+        return (Map<String, Object>) queue.stats().get("embed");
+    }
+}
@@ -0,0 +1,165 @@
+package cn.bitsleep.tdl.queue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.Redisson;
+import org.redisson.api.RSet;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.config.Config;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 需要本地 Redis（-Dtdl.test.redis.url，默认 redis://127.0.0.1:6379，使用 db 15 且每个用例前清空）；
+ * 连不上时跳过。两个实例模拟两个节点（consumer 不同）。
+ */
+class StreamJobQueueTest {
+
+    private static final String PENDING = "tdl:todo:embed:stream:pending";
+
+    private RedissonClient redisson;
+    private StreamJobQueue node1;
+    private StreamJobQueue node2;
+
+    @BeforeEach
+    void setUp() {
+        Config config = new Config();
+        config.useSingleServer()
+                .setAddress(System.getProperty("tdl.test.redis.url", "redis://127.0.0.1:6379"))
+                .setDatabase(15)
+                .setConnectionMinimumIdleSize(1)
+                .setConnectTimeout(1000);
+        try {
+            redisson = Redisson.create(config);
+        } catch (RuntimeException e) {
+            assumeTrue(false, "Redis not available: " + e.getMessage());
+        }
+        redisson.getKeys().flushdb();
+        node1 = queue("node-1");
+        node2 = queue("node-2");
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (redisson != null) redisson.shutdown();
+    }
+
+    @Test
+    void coalescesJobsWaitingInStream() throws Exception {
+        node1.enqueueAll(Topic.EMBED, List.of("u1:a", "u1:b", "u1:a"));
+        node1.enqueueAll(Topic.EMBED, List.of("u1:b"));
+
+        List<Job> jobs = node1.read(Topic.EMBED, 10, 0);
+
+        assertThat(payloads(jobs)).containsExactly("u1:a", "u1:b");
+        assertThat(node1.backlog(Topic.EMBED)).isEqualTo(2L);
+    }
+
+    @Test
+    void readRemovesJobFromCoalescingSet() throws Exception {
+        node1.enqueueAll(Topic.EMBED, List.of("u1:a"));
+
+        node1.read(Topic.EMBED, 10, 0);
+
+        // 处理期间的新编辑必须能重新入队
+        assertThat(pendingSet().isEmpty()).isTrue();
+        node1.enqueueAll(Topic.EMBED, List.of("u1:a"));
+        assertThat(payloads(node1.read(Topic.EMBED, 10, 0))).containsExactly("u1:a");
+    }
+
+    @Test
+    void crashAfterReadNeitherBlocksEnqueueNorLosesJob() throws Exception {
+        node1.enqueueAll(Topic.EMBED, List.of("u1:a"));
+        List<Job> read = node1.read(Topic.EMBED, 10, 0);
+        // node1 在 ack 前退出：消息留在它的 pending 列表中
+
+        node2.enqueueAll(Topic.EMBED, List.of("u1:a"));
+        List<Job> reclaimed = node2.reclaim(Topic.EMBED, 10);
+        List<Job> fresh = node2.read(Topic.EMBED, 10, 0);
+
+        assertThat(payloads(fresh)).containsExactly("u1:a");
+        assertThat(reclaimed).hasSize(1);
+        assertThat(reclaimed.get(0).id()).isEqualTo(read.get(0).id());
+        assertThat(reclaimed.get(0).deliveries()).isEqualTo(2L);
+    }
+
+    @Test
+    void ackRemovesEntryFromStream() throws Exception {
+        node1.enqueueAll(Topic.EMBED, List.of("u1:a", "u1:b"));
+
+        node1.ack(Topic.EMBED, node1.read(Topic.EMBED, 10, 0));
+
+        assertThat(node1.backlog(Topic.EMBED)).isZero();
+        assertThat(node2.reclaim(Topic.EMBED, 10)).isEmpty();
+    }
+
+    @Test
+    void exhaustedJobGoesToDeadLetter() throws Exception {
+        node1.enqueueAll(Topic.EMBED, List.of("u1:a"));
+        node1.read(Topic.EMBED, 10, 0);
+        node2.reclaim(Topic.EMBED, 10);
+
+        // 第二次投递也未 ack，达到上限 2
+        assertThat(node1.reclaim(Topic.EMBED, 10)).isEmpty();
+        assertThat(node1.backlog(Topic.EMBED)).isZero();
+        assertThat(redisson.getStream("tdl:todo:embed:stream:dead", StringCodec.INSTANCE).size()).isEqualTo(1L);
+        assertThat(pendingSet().isEmpty()).isTrue();
+    }
+
+    @Test
+    void readWaitsForNextWrite() throws Exception {
+        Thread writer = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                return;
+            }
+            node2.enqueueAll(Topic.EMBED, List.of("u1:a"));
+        });
+        writer.start();
+
+        List<Job> jobs = node1.read(Topic.EMBED, 10, 5000);
+
+        writer.join();
+        assertThat(payloads(jobs)).containsExactly("u1:a");
+    }
+
+    @Test
+    void initPrunesMembersAlreadyDelivered() throws Exception {
+        node1.enqueueAll(Topic.EMBED, List.of("u1:a", "u1:b"));
+        node1.read(Topic.EMBED, 1, 0);
+        // 旧版本读取后单独 SREM，进程在两步之间退出留下的成员
+        pendingSet().add("u1:a");
+        pendingSet().add("u1:gone");
+
+        queue("node-3");
+
+        assertThat(pendingSet().readAll()).containsExactly("u1:b");
+    }
+
+    private StreamJobQueue queue(String consumer) {
+        StreamJobQueue queue = new StreamJobQueue(redisson);
+        ReflectionTestUtils.setField(queue, "consumer", consumer);
+        ReflectionTestUtils.setField(queue, "group", "tdl-workers");
+        // 空闲 0ms：未 ack 的任务立即可被认领
+        ReflectionTestUtils.setField(queue, "claimIdleMs", 0L);
+        ReflectionTestUtils.setField(queue, "maxDeliveries", 2);
+        ReflectionTestUtils.setField(queue, "deadLetterMaxLen", 10);
+        queue.init();
+        return queue;
+    }
+
+    private RSet<String> pendingSet() {
+        return redisson.getSet(PENDING, StringCodec.INSTANCE);
+    }
+
+    private static List<String> payloads(List<Job> jobs) {
+        return jobs.stream().map(Job::payload).toList();
+    }
+}
@@ -0,0 +1,102 @@
+package cn.bitsleep.tdl.repo;
+
+import cn.bitsleep.tdl.repo.TodoVectorRepository.BackfillUpdate;
+import cn.bitsleep.tdl.repo.TodoVectorRepository.EmbeddingUpdate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * updated_at 触发器（增量同步水位线）：只写回向量时保持不变，内容修改时前移。
+ * 每条语句单独提交，NOW() 取各自的事务开始时间。
+ */
+@SpringBootTest
+class TodoItemUpdatedAtTest {
+
+    private static final String TEXT = "title\n";
+    private static final String MODEL_VERSION = "test@t1";
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private TodoVectorRepository vectorRepo;
+
+    @Value("${tdl.embedding.dimension:384}")
+    private int dimension;
+
+    private final String userId = "updated-at-test-" + UUID.randomUUID();
+    private final String id = UUID.randomUUID().toString();
+
+    @BeforeEach
+    void insert() {
+        jdbc.update("INSERT INTO todo_item (id, user_id, title, text) VALUES (?, ?, 'title', ?)", id, userId, TEXT);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        jdbc.update("DELETE FROM todo_item WHERE user_id = ?", userId);
+        jdbc.update("DELETE FROM todo_tombstone WHERE user_id = ?", userId);
+    }
+
+    @Test
+    void embeddingWriteKeepsUpdatedAtAndVersion() throws Exception {
+        Row before = row();
+        Thread.sleep(10);
+
+        int updated = vectorRepo.updateEmbeddings(List.of(new EmbeddingUpdate(id, userId, vector(), TEXT)), MODEL_VERSION);
+
+        Row after = row();
+        assertThat(updated).isEqualTo(1);
+        assertThat(after.embeddingHash()).isNotNull();
+        assertThat(after.updatedAt()).isEqualTo(before.updatedAt());
+        assertThat(after.version()).isEqualTo(before.version());
+    }
+
+    @Test
+    void backfillWriteKeepsUpdatedAtAndVersion() throws Exception {
+        Row before = row();
+        Thread.sleep(10);
+
+        int updated = vectorRepo.backfillEmbeddings(List.of(new BackfillUpdate(id, "title", null, TEXT, vector())), MODEL_VERSION);
+
+        Row after = row();
+        assertThat(updated).isEqualTo(1);
+        assertThat(after.updatedAt()).isEqualTo(before.updatedAt());
+        assertThat(after.version()).isEqualTo(before.version());
+    }
+
+    @Test
+    void contentEditMovesUpdatedAt() throws Exception {
+        Row before = row();
+        Thread.sleep(10);
+
+        jdbc.update("UPDATE todo_item SET title = 'edited', version = version + 1 WHERE id = ?", id);
+
+        assertThat(row().updatedAt()).isAfter(before.updatedAt());
+    }
+
+    private Row row() {
+        return jdbc.queryForObject("SELECT updated_at, version, embedding_hash FROM todo_item WHERE id = ?",
+                (rs, i) -> new Row(rs.getTimestamp("updated_at").toInstant(), rs.getLong("version"), rs.getString("embedding_hash")),
+                id);
+    }
+
+    private float[] vector() {
+        float[] v = new float[dimension];
+        v[0] = 1f;
+        return v;
+    }
+
+    private record Row(Instant updatedAt, long version, String embeddingHash) {}
+}
@@ -0,0 +1,166 @@
+package cn.bitsleep.tdl.repo;
+
+import cn.bitsleep.tdl.repo.TodoListRepository.ListQuery;
+import cn.bitsleep.tdl.repo.TodoListRepository.Sort;
+import cn.bitsleep.tdl.repo.TodoListRepository.TagMatch;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class TodoListRepositoryTest {
+
+    private static final Short[] ACTIVE = {0, 1};
+
+    private NamedParameterJdbcTemplate jdbc;
+    private TodoListRepository repo;
+
+    @BeforeEach
+    void setUp() {
+        jdbc = mock(NamedParameterJdbcTemplate.class);
+        repo = new TodoListRepository(jdbc, new ObjectMapper());
+    }
+
+    @Test
+    void unfilteredFirstPageHasNoOptionalPredicates() {
+        String sql = sql(query(null, null, null, false, Sort.CREATED, false, null));
+
+        assertThat(sql).contains("WHERE ti.user_id = :userId");
+        assertThat(sql).contains("ORDER BY ti.created_at DESC, ti.id DESC");
+        assertThat(sql).doesNotContain("IS NULL");
+        assertThat(sql).doesNotContain("priority_level_id =");
+        assertThat(sql).doesNotContain("category_id =");
+        assertThat(sql).doesNotContain("todo_tag");
+        assertThat(sql).doesNotContain(":cursorKey");
+    }
+
+    @Test
+    void filtersAppearOnlyWhenPresent() {
+        String level = sql(query("p1", null, null, false, Sort.CREATED, false, null));
+        String category = sql(query(null, "c1", null, false, Sort.CREATED, false, null));
+        String both = sql(query("p1", "c1", null, false, Sort.PRIORITY, false, null));
+
+        assertThat(level).contains("AND ti.priority_level_id = :priorityLevelId").doesNotContain("category_id =");
+        assertThat(category).contains("AND ti.category_id = :categoryId").doesNotContain("priority_level_id =");
+        assertThat(both).contains("AND ti.priority_level_id = :priorityLevelId", "AND ti.category_id = :categoryId");
+    }
+
+    @Test
+    void blankFilterCountsAsAbsent() {
+        String sql = sql(query(" ", "", null, false, Sort.CREATED, false, null));
+
+        assertThat(sql).doesNotContain("priority_level_id =").doesNotContain("category_id =");
+    }
+
+    @Test
+    void anyTagUsesSemiJoinAndAllTagsCountsMatches() {
+        String anyTag = sql(query(null, null, new String[]{"t1", "t2"}, false, Sort.CREATED, false, null));
+        ArgumentCaptor<SqlParameterSource> params = ArgumentCaptor.forClass(SqlParameterSource.class);
+        String allTags = sql(query(null, null, new String[]{"t1", "t2"}, true, Sort.CREATED, false, null), params);
+
+        assertThat(anyTag).contains("AND EXISTS (SELECT 1 FROM todo_tag tt").doesNotContain("HAVING");
+        assertThat(allTags).contains("GROUP BY tt.todo_id").contains("HAVING count(*) = :tagCount");
+        assertThat(params.getValue().getValue("tagCount")).isEqualTo(2);
+    }
+
+    @Test
+    void cursorComparisonFollowsSortDirection() {
+        ArgumentCaptor<SqlParameterSource> params = ArgumentCaptor.forClass(SqlParameterSource.class);
+        String desc = sql(query(null, null, null, false, Sort.CREATED, false, Instant.parse("2026-10-01T08:30:00Z")), params);
+        Object createdKey = params.getValue().getValue("cursorKey");
+        String asc = sql(query(null, null, null, false, Sort.PRIORITY, true, new BigDecimal("5.5")), params);
+
+        assertThat(desc).contains("AND (ti.created_at, ti.id) < (:cursorKey, :cursorId)");
+        assertThat(asc).contains("AND (ti.priority_score, ti.id) > (:cursorKey, :cursorId)");
+        assertThat(asc).contains("ORDER BY ti.priority_score ASC, ti.id ASC");
+        // created_at 为 TIMESTAMP 列，Instant 按 Timestamp 绑定
+        assertThat(createdKey).isInstanceOf(Timestamp.class);
+        assertThat(params.getValue().getValue("cursorKey")).isEqualTo(new BigDecimal("5.5"));
+    }
+
+    @Test
+    void everyShapeBuildsDistinctCachedSql() {
+        Set<String> texts = new HashSet<>();
+        int shapes = 0;
+        for (Sort sort : Sort.values()) {
+            for (boolean asc : new boolean[]{false, true}) {
+                for (int filters = 0; filters < 4; filters++) {
+                    for (TagMatch tags : TagMatch.values()) {
+                        for (boolean cursor : new boolean[]{false, true}) {
+                            Object key = cursor ? (sort == Sort.CREATED ? Instant.now() : BigDecimal.ONE) : null;
+                            String sql = sql(query((filters & 1) != 0 ? "p1" : null, (filters & 2) != 0 ? "c1" : null,
+                                    tags == TagMatch.NONE ? null : new String[]{"t1"}, tags == TagMatch.ALL, sort, asc, key));
+                            String dir = asc ? "ASC" : "DESC";
+                            assertThat(sql).contains("ORDER BY " + sort.column + ' ' + dir + ", ti.id " + dir);
+                            assertThat(sql).doesNotContain("IS NULL OR");
+                            texts.add(sql);
+                            shapes++;
+                        }
+                    }
+                }
+            }
+        }
+
+        assertThat(texts).hasSize(shapes);
+        assertThat(repo.cachedShapes()).isEqualTo(shapes);
+    }
+
+    @Test
+    void sameShapeReusesSqlText() {
+        String first = sql(query("p1", null, null, false, Sort.CREATED, false, null));
+        String second = sql(query("p2", null, null, false, Sort.CREATED, false, null));
+
+        assertThat(second).isSameAs(first);
+        assertThat(repo.cachedShapes()).isEqualTo(1);
+    }
+
+    @Test
+    void everySortHasIndexForEachSingleFilter() throws IOException {
+        String schema = new ClassPathResource("schema.sql").getContentAsString(StandardCharsets.UTF_8);
+
+        // 等值列在前、排序列在后，无筛选、只按优先级或只按分类时都能按索引顺序取一页
+        for (Sort sort : Sort.values()) {
+            String order = sort.column.substring("ti.".length()) + " DESC, id DESC)";
+            assertThat(schema).contains("(user_id, " + order);
+            assertThat(schema).contains("(user_id, priority_level_id, " + order);
+            assertThat(schema).contains("(user_id, category_id, " + order);
+        }
+    }
+
+    private static ListQuery query(String levelId, String categoryId, String[] tagIds, boolean matchAll,
+                                   Sort sort, boolean asc, Object cursorKey) {
+        return new ListQuery("u1", ACTIVE, levelId, categoryId, tagIds, matchAll, sort, asc,
+                cursorKey, cursorKey == null ? null : "a1", 20);
+    }
+
+    private String sql(ListQuery q) {
+        return sql(q, ArgumentCaptor.forClass(SqlParameterSource.class));
+    }
+
+    // 执行一次 page 并取出实际发给 JdbcTemplate 的 SQL 文本
+    @SuppressWarnings("unchecked")
+    private String sql(ListQuery q, ArgumentCaptor<SqlParameterSource> params) {
+        repo.page(q);
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbc, atLeastOnce()).query(sql.capture(), params.capture(), any(RowMapper.class));
+        return sql.getValue();
+    }
+}
@@ -0,0 +1,61 @@
+package cn.bitsleep.tdl.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static cn.bitsleep.tdl.service.TodoFixtures.token;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChangeTokenTest {
+
+    private static final Instant AT = Instant.parse("2026-10-01T08:30:00.123456Z");
+
+    @Test
+    void roundTrips() {
+        ChangeToken token = new ChangeToken(AT, "a1");
+
+        assertThat(ChangeToken.decode(token.encode())).isEqualTo(token);
+    }
+
+    @Test
+    void settledTokenHasEmptyId() {
+        ChangeToken token = new ChangeToken(AT, "");
+
+        assertThat(ChangeToken.decode(token.encode()).id()).isEqualTo("");
+    }
+
+    @Test
+    void ordersByTimeThenId() {
+        ChangeToken a = new ChangeToken(AT, "b");
+
+        assertThat(a.compareTo(new ChangeToken(AT.plusMillis(1), "a"))).isLessThan(0);
+        assertThat(a.compareTo(new ChangeToken(AT, "c"))).isLessThan(0);
+        assertThat(a.compareTo(new ChangeToken(AT, ""))).isGreaterThan(0);
+        assertThat(a.compareTo(new ChangeToken(AT, "b"))).isZero();
+    }
+
+    @Test
+    void rejectsNonBase64() {
+        assertThatThrownBy(() -> ChangeToken.decode("%%%"))
+                .isInstanceOf(InvalidCursorException.class);
+    }
+
+    @Test
+    void rejectsListCursor() {
+        // 列表分页游标与同步令牌不能混用
+        String cursor = new ListCursor(ListCursor.CREATED, false, AT.toString(), "a1").encode();
+
+        assertThatThrownBy(() -> ChangeToken.decode(cursor))
+                .isInstanceOf(InvalidCursorException.class);
+    }
+
+    @Test
+    void rejectsMalformedTime() {
+        assertThatThrownBy(() -> ChangeToken.decode(token("c1|2026-13-01|a1")))
+                .isInstanceOf(InvalidCursorException.class);
+        assertThatThrownBy(() -> ChangeToken.decode(token("c1|" + AT)))
+                .isInstanceOf(InvalidCursorException.class);
+    }
+}
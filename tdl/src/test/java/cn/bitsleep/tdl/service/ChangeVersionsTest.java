@@ -0,0 +1,105 @@
+package cn.bitsleep.tdl.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RedissonClient;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class ChangeVersionsTest {
+
+    private VersionHashStub hash;
+    private ChangeVersions versions;
+
+    @BeforeEach
+    void setUp() {
+        RedissonClient redisson = mock(RedissonClient.class);
+        hash = new VersionHashStub(redisson);
+        versions = new ChangeVersions(redisson);
+        ReflectionTestUtils.setField(versions, "versionTtlMs", 60_000L);
+    }
+
+    @Test
+    void tokenCarriesEpochAndCounters() {
+        versions.bump("u1");
+        versions.bump("u1");
+
+        assertThat(versions.fresh("u1")).isEqualTo(hash.epoch + ".2");
+        assertThat(versions.freshSearch("u1")).isEqualTo(hash.epoch + ".2.0");
+    }
+
+    @Test
+    void searchBumpOnlyChangesSearchToken() {
+        String main = versions.fresh("u1");
+        String search = versions.freshSearch("u1");
+
+        versions.bumpSearch("u1");
+
+        assertThat(versions.current("u1")).isEqualTo(main);
+        assertThat(versions.fresh("u1")).isEqualTo(main);
+        assertThat(versions.freshSearch("u1")).isNotEqualTo(search);
+    }
+
+    @Test
+    void contentBumpAlsoChangesSearchToken() {
+        String search = versions.freshSearch("u1");
+
+        versions.bump("u1");
+
+        assertThat(versions.freshSearch("u1")).isNotEqualTo(search);
+    }
+
+    @Test
+    void flushedCounterGetsNewEpoch() {
+        for (int i = 0; i < 3; i++) versions.bump("u1");
+        String before = versions.current("u1");
+        hash.flush();
+        hash.epoch = "e2";
+        for (int i = 0; i < 3; i++) hash.main++;
+
+        // 计数回到相同值，epoch 不同：新版本号替换本地记住的值，即使计数并不更大
+        String after = versions.fresh("u1");
+
+        assertThat(after).isEqualTo("e2.3").isNotEqualTo(before);
+        assertThat(versions.current("u1")).isEqualTo(after);
+        assertThat(versions.stats()).containsEntry("staleRefreshes", 1L);
+    }
+
+    @Test
+    void failedBumpIsPendingUntilRetried() {
+        List<String> failed = new ArrayList<>();
+        versions.onBumpFailure(failed::add);
+        String before = versions.fresh("u1");
+        hash.failBumps = true;
+
+        versions.bump("u1");
+        assertThat(versions.isPending("u1")).isTrue();
+        assertThat(failed).containsExactly("u1");
+
+        hash.failBumps = false;
+        versions.retryPending();
+        assertThat(versions.isPending("u1")).isFalse();
+        assertThat(versions.fresh("u1")).isNotEqualTo(before);
+    }
+
+    @Test
+    void failedSearchBumpIsPendingWithoutDroppingPages() {
+        List<String> failed = new ArrayList<>();
+        versions.onBumpFailure(failed::add);
+        String search = versions.freshSearch("u1");
+        hash.failBumps = true;
+
+        versions.bumpSearch("u1");
+        hash.failBumps = false;
+        versions.retryPending();
+
+        // 首页缓存无需清理；重试递增主计数，搜索版本号同样改变
+        assertThat(failed).isEmpty();
+        assertThat(versions.freshSearch("u1")).isNotEqualTo(search);
+    }
+}
@@ -0,0 +1,211 @@
+package cn.bitsleep.tdl.service;
+
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 用内存中的条目状态模拟 todo_item / todo_tag：快照查询读当前状态，FOR UPDATE 用每条目一把锁模拟（track 返回即视为提交释放），
+ * upsert 累加到内存计数。
+ */
+class FacetCountersTest {
+
+    private static final String USER = "u1";
+
+    private final Map<String, Row> rows = new ConcurrentHashMap<>();
+    private final Map<String, Long> counts = new ConcurrentHashMap<>();
+    private final Map<String, ReentrantLock> rowLocks = new ConcurrentHashMap<>();
+
+    private FacetCounters counters;
+
+    @BeforeEach
+    void setUp() {
+        JdbcTemplate jdbc = mock(JdbcTemplate.class);
+        when(jdbc.queryForList(startsWith("SELECT id FROM todo_item"), eq(String.class), any(), any())).thenAnswer(inv -> {
+            rowLocks.computeIfAbsent(inv.getArgument(2), id -> new ReentrantLock()).lock();
+            return List.of();
+        });
+        when(jdbc.query(startsWith("SELECT t.status"), any(RowMapper.class), any(), any())).thenAnswer(inv -> {
+            Row row = rows.get((String) inv.getArgument(2));
+            if (row == null) return List.of();
+            RowMapper<?> mapper = inv.getArgument(1);
+            return List.of(mapper.mapRow(resultSet(row), 0));
+        });
+        doAnswer(inv -> {
+            List<Object[]> batch = inv.getArgument(1);
+            for (Object[] r : batch) counts.merge(r[1] + "/" + r[2], (Long) r[3], Long::sum);
+            return new int[batch.size()];
+        }).when(jdbc).batchUpdate(startsWith("INSERT INTO todo_facet_count"), anyList());
+        counters = new FacetCounters(jdbc, mock(EntityManager.class), null);
+    }
+
+    @Test
+    void createCountsEveryFacet() {
+        track("a", () -> rows.put("a", new Row(0, "c1", "p1", "t1", "t2")));
+
+        assertThat(count("status/0")).isEqualTo(1L);
+        assertThat(count("category/c1")).isEqualTo(1L);
+        assertThat(count("priorityLevel/p1")).isEqualTo(1L);
+        assertThat(count("tag/t1")).isEqualTo(1L);
+        assertThat(count("tag/t2")).isEqualTo(1L);
+    }
+
+    @Test
+    void trashKeepsOnlyStatusCount() {
+        track("a", () -> rows.put("a", new Row(0, "c1", "p1", "t1")));
+
+        track("a", () -> rows.put("a", new Row(2, "c1", "p1", "t1")));
+
+        assertThat(count("status/0")).isEqualTo(0L);
+        assertThat(count("status/2")).isEqualTo(1L);
+        assertThat(count("category/c1")).isEqualTo(0L);
+        assertThat(count("priorityLevel/p1")).isEqualTo(0L);
+        assertThat(count("tag/t1")).isEqualTo(0L);
+    }
+
+    @Test
+    void unsetCategoryCountsUnderEmptyKey() {
+        track("a", () -> rows.put("a", new Row(0, null, null)));
+
+        assertThat(count("category/")).isEqualTo(1L);
+        assertThat(count("priorityLevel/")).isEqualTo(1L);
+    }
+
+    @Test
+    void nestedTrackAppliesDeltaOnce() {
+        track("a", () -> rows.put("a", new Row(0, "c1", "p1")));
+
+        track("a", () -> {
+            rows.put("a", new Row(0, "c2", "p1"));
+            // 如 updateContent 内的 setTagsForTodo
+            counters.track(USER, "a", () -> rows.put("a", new Row(0, "c2", "p1", "t1")));
+        });
+
+        assertThat(count("category/c1")).isEqualTo(0L);
+        assertThat(count("category/c2")).isEqualTo(1L);
+        assertThat(count("tag/t1")).isEqualTo(1L);
+        assertThat(count("status/0")).isEqualTo(1L);
+    }
+
+    @Test
+    void concurrentWritesToSameTodoDoNotDoubleCount() throws Exception {
+        track("a", () -> rows.put("a", new Row(0, "c1", "p1")));
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch secondStarted = new CountDownLatch(1);
+            // 第一个写在持有行锁期间等待第二个写开始，第二个写的“写前”快照必须等到第一个提交之后
+            Future<?> first = pool.submit(() -> track("a", () -> {
+                await(secondStarted);
+                sleep(50);
+                rows.put("a", new Row(0, "c2", "p1"));
+            }));
+            Future<?> second = pool.submit(() -> {
+                secondStarted.countDown();
+                track("a", () -> rows.put("a", new Row(0, "c3", "p2")));
+            });
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(count("category/c1")).isEqualTo(0L);
+        assertThat(count("category/c2")).isEqualTo(0L);
+        assertThat(count("category/c3")).isEqualTo(1L);
+        assertThat(count("priorityLevel/p1")).isEqualTo(0L);
+        assertThat(count("priorityLevel/p2")).isEqualTo(1L);
+        assertThat(count("status/0")).isEqualTo(1L);
+    }
+
+    @Test
+    void concurrentWritesToDifferentTodosAddUp() throws Exception {
+        int n = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                String id = "t" + i;
+                futures.add(pool.submit(() -> track(id, () -> rows.put(id, new Row(0, "c1", "p1", "shared")))));
+            }
+            for (Future<?> f : futures) f.get(5, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(count("status/0")).isEqualTo((long) n);
+        assertThat(count("category/c1")).isEqualTo((long) n);
+        assertThat(count("tag/shared")).isEqualTo((long) n);
+    }
+
+    // track 返回即视为事务提交：释放本线程持有的行锁
+    private void track(String todoId, Runnable write) {
+        try {
+            counters.track(USER, todoId, write);
+        } finally {
+            ReentrantLock lock = rowLocks.get(todoId);
+            while (lock != null && lock.isHeldByCurrentThread()) lock.unlock();
+        }
+    }
+
+    private long count(String key) {
+        return counts.getOrDefault(key, 0L);
+    }
+
+    // 只实现快照映射用到的几个列读取
+    private static ResultSet resultSet(Row row) {
+        Array tags = (Array) Proxy.newProxyInstance(Array.class.getClassLoader(), new Class<?>[]{Array.class},
+                (proxy, method, args) -> "getArray".equals(method.getName()) ? row.tags() : null);
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> switch (method.getName() + ":" + (args == null ? "" : args[0])) {
+                    case "getInt:status" -> row.status();
+                    case "getString:category_id" -> row.categoryId();
+                    case "getString:priority_level_id" -> row.priorityLevelId();
+                    case "getArray:tags" -> tags;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record Row(int status, String categoryId, String priorityLevelId, String... tags) {}
+}
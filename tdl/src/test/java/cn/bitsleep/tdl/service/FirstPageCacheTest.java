@@ -0,0 +1,163 @@
+package cn.bitsleep.tdl.service;
+
+import cn.bitsleep.tdl.dto.TodoView;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RBucket;
+import org.redisson.api.RFuture;
+import org.redisson.api.RKeys;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.Codec;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cn.bitsleep.tdl.service.TodoFixtures.view;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FirstPageCacheTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private RedissonClient redisson;
+    private VersionHashStub versions;
+    private RBucket<Object> bucket;
+    private RKeys keys;
+    private ChangeVersions changeVersions;
+    private FirstPageCache cache;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisson = mock(RedissonClient.class);
+        bucket = mock(RBucket.class);
+        keys = mock(RKeys.class);
+        when(redisson.getBucket(anyString(), any(Codec.class))).thenReturn(bucket);
+        when(redisson.getKeys()).thenReturn(keys);
+        when(keys.deleteByPatternAsync(anyString())).thenReturn(mock(RFuture.class));
+        versions = new VersionHashStub(redisson);
+        versions.epoch = "e1";
+        versions.main = 1;
+
+        changeVersions = new ChangeVersions(redisson);
+        ReflectionTestUtils.setField(changeVersions, "versionTtlMs", 60_000L);
+        cache = new FirstPageCache(redisson, objectMapper, changeVersions);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxBytes", 1L << 20);
+        ReflectionTestUtils.setField(cache, "redisTtlSeconds", 600L);
+        cache.init();
+    }
+
+    @Test
+    void repeatedGetIsServedFromNearCache() {
+        cache.get("u1", "created desc", this::load);
+        List<TodoView> page = cache.get("u1", "created desc", this::load);
+
+        assertThat(page).hasSize(1);
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(cache.stats()).containsEntry("nearHits", 1L);
+    }
+
+    @Test
+    void pagesAreKeyedByUserAndShape() {
+        cache.get("u1", "created desc", this::load);
+        cache.get("u2", "created desc", this::load);
+        cache.get("u1", "priority desc", this::load);
+
+        assertThat(loads.get()).isEqualTo(3);
+    }
+
+    @Test
+    void versionBumpInvalidatesCachedPages() {
+        cache.get("u1", "created desc", this::load);
+
+        changeVersions.bump("u1");
+        cache.get("u1", "created desc", this::load);
+
+        assertThat(loads.get()).isEqualTo(2);
+        // 新版本的页写到新的 Redis 键，旧键随 TTL 过期
+        verify(redisson).getBucket(endsWith(":e1.2"), any(Codec.class));
+    }
+
+    @Test
+    void searchBumpKeepsCachedPages() {
+        cache.get("u1", "created desc", this::load);
+
+        changeVersions.bumpSearch("u1");
+        cache.get("u1", "created desc", this::load);
+
+        assertThat(loads.get()).isEqualTo(1);
+    }
+
+    @Test
+    void flushedVersionDoesNotReuseOldPages() {
+        cache.get("u1", "created desc", this::load);
+        versions.flush();
+        versions.main = 1;
+
+        // 另一节点读到新 epoch 后，本节点的 fresh() 也换到新 epoch，计数相同也不会命中旧页
+        changeVersions.fresh("u1");
+        cache.get("u1", "created desc", this::load);
+
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    void remoteHitSkipsLoader() throws Exception {
+        when(bucket.get()).thenReturn(objectMapper.writeValueAsString(List.of(view("a", BigDecimal.ONE))));
+
+        List<TodoView> page = cache.get("u1", "created desc", this::load);
+
+        assertThat(page.get(0).id()).isEqualTo("a");
+        assertThat(loads.get()).isZero();
+        assertThat(cache.stats()).containsEntry("remoteHits", 1L);
+    }
+
+    @Test
+    void failedBumpDropsUsersPagesAndBypassesUntilRetried() {
+        versions.failBumps = true;
+        cache.get("u1", "created desc", this::load);
+        cache.get("u2", "created desc", this::load);
+
+        changeVersions.bump("u1");
+        cache.get("u1", "created desc", this::load);
+        cache.get("u2", "created desc", this::load);
+
+        // u1 的页被清掉且在重试成功前不再缓存，u2 不受影响
+        assertThat(loads.get()).isEqualTo(3);
+        assertThat(cache.stats()).containsEntry("bypassed", 1L);
+        assertThat(cache.stats()).containsEntry("entries", 1);
+        verify(keys).deleteByPatternAsync(startsWith("tdl:todo:page:"));
+    }
+
+    @Test
+    void nearCacheIsBoundedBySerializedSize() throws Exception {
+        int pageBytes = objectMapper.writeValueAsString(List.of(view("x", BigDecimal.ONE))).length();
+        ReflectionTestUtils.setField(cache, "maxBytes", (long) pageBytes * 2);
+
+        cache.get("u1", "a", this::load);
+        cache.get("u1", "b", this::load);
+        cache.get("u1", "c", this::load);
+
+        assertThat(cache.stats()).containsEntry("entries", 2);
+        // 最早的页已被淘汰
+        cache.get("u1", "a", this::load);
+        assertThat(loads.get()).isEqualTo(4);
+    }
+
+    private List<TodoView> load() {
+        loads.incrementAndGet();
+        return List.of(view("x", BigDecimal.ONE));
+    }
+}
@@ -0,0 +1,81 @@
+package cn.bitsleep.tdl.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static cn.bitsleep.tdl.service.TodoFixtures.CREATED_AT;
+import static cn.bitsleep.tdl.service.TodoFixtures.token;
+import static cn.bitsleep.tdl.service.TodoFixtures.view;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ListCursorTest {
+
+    @Test
+    void createdCursorRoundTrips() {
+        ListCursor cursor = ListCursor.after(view("a1", new BigDecimal("10")), ListCursor.CREATED, false);
+
+        ListCursor decoded = ListCursor.decode(cursor.encode());
+
+        assertThat(decoded).isEqualTo(cursor);
+        assertThat(decoded.sortKey()).isEqualTo(CREATED_AT);
+        assertThat(decoded.id()).isEqualTo("a1");
+        assertThat(decoded.matches(ListCursor.CREATED, false)).isTrue();
+        assertThat(decoded.matches(ListCursor.CREATED, true)).isFalse();
+        assertThat(decoded.matches(ListCursor.PRIORITY, false)).isFalse();
+    }
+
+    @Test
+    void priorityCursorKeepsExactScale() {
+        ListCursor cursor = ListCursor.after(view("b2", new BigDecimal("1999999990.50")), ListCursor.PRIORITY, true);
+
+        ListCursor decoded = ListCursor.decode(cursor.encode());
+
+        assertThat(decoded.sortKey()).isEqualTo(new BigDecimal("1999999990.50"));
+        assertThat(decoded.asc()).isTrue();
+    }
+
+    @Test
+    void idMayContainSeparator() {
+        ListCursor cursor = new ListCursor(ListCursor.CREATED, false, CREATED_AT.toString(), "x|y");
+
+        assertThat(ListCursor.decode(cursor.encode()).id()).isEqualTo("x|y");
+    }
+
+    @Test
+    void encodedTokenIsUrlSafe() {
+        String token = ListCursor.after(view("a1", BigDecimal.ONE), ListCursor.CREATED, false).encode();
+
+        assertThat(token).matches("[A-Za-z0-9_-]+");
+    }
+
+    @Test
+    void unknownSortFallsBackToCreated() {
+        assertThat(ListCursor.normalizeSort("priority")).isEqualTo(ListCursor.PRIORITY);
+        assertThat(ListCursor.normalizeSort("title")).isEqualTo(ListCursor.CREATED);
+        assertThat(ListCursor.normalizeSort(null)).isEqualTo(ListCursor.CREATED);
+    }
+
+    @Test
+    void rejectsNonBase64() {
+        assertThatThrownBy(() -> ListCursor.decode("not base64!"))
+                .isInstanceOf(InvalidCursorException.class);
+    }
+
+    @Test
+    void rejectsWrongVersionAndShape() {
+        assertThatThrownBy(() -> ListCursor.decode(token("v0|created|desc|" + CREATED_AT + "|a1")))
+                .isInstanceOf(InvalidCursorException.class);
+        assertThatThrownBy(() -> ListCursor.decode(token("v1|created|desc|" + CREATED_AT)))
+                .isInstanceOf(InvalidCursorException.class);
+    }
+
+    @Test
+    void rejectsMalformedKeys() {
+        assertThatThrownBy(() -> ListCursor.decode(token("v1|created|desc|yesterday|a1")))
+                .isInstanceOf(InvalidCursorException.class);
+        assertThatThrownBy(() -> ListCursor.decode(token("v1|priority|desc|high|a1")))
+                .isInstanceOf(InvalidCursorException.class);
+    }
+}
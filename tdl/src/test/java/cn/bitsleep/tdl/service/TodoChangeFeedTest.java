@@ -0,0 +1,115 @@
+package cn.bitsleep.tdl.service;
+
+import cn.bitsleep.tdl.dto.TodoChanges;
+import cn.bitsleep.tdl.dto.TodoView;
+import cn.bitsleep.tdl.repo.TodoChangeRepository;
+import cn.bitsleep.tdl.repo.TodoChangeRepository.Tombstone;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static cn.bitsleep.tdl.service.TodoFixtures.view;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TodoChangeFeedTest {
+
+    private static final String USER = "u1";
+    private static final Instant NOW = Instant.parse("2026-10-10T12:00:00Z");
+    private static final Instant T1 = NOW.minusSeconds(40);
+    private static final Instant T2 = NOW.minusSeconds(30);
+    private static final Instant T3 = NOW.minusSeconds(20);
+
+    private TodoChangeRepository repo;
+    private TodoChangeFeed feed;
+
+    @BeforeEach
+    void setUp() {
+        repo = mock(TodoChangeRepository.class);
+        when(repo.now()).thenReturn(NOW);
+        feed = new TodoChangeFeed(repo);
+        ReflectionTestUtils.setField(feed, "settleMs", 5000L);
+        ReflectionTestUtils.setField(feed, "retentionDays", 30L);
+    }
+
+    @Test
+    void mergesChangesAndTombstonesInWatermarkOrder() {
+        ChangeToken since = new ChangeToken(T1.minusSeconds(1), "z");
+        // 合并顺序：a(T1) < b(T2) < c(T3) < d(T3)，同一时间按 id
+        when(repo.changedAfter(USER, since.at(), since.id(), 4)).thenReturn(List.of(view("a", T1), view("d", T3)));
+        when(repo.deletedAfter(USER, since.at(), since.id(), 4)).thenReturn(List.of(new Tombstone("b", T2), new Tombstone("c", T3)));
+
+        TodoChanges page = feed.changes(USER, since.encode(), 3);
+
+        assertThat(page.changed().stream().map(TodoView::id).toList()).containsExactly("a");
+        assertThat(page.deleted()).containsExactly("b", "c");
+        assertThat(page.hasMore()).isTrue();
+        // 下一页从本批最后一条（墓碑 c）之后继续，d 不会被跳过
+        assertThat(ChangeToken.decode(page.next())).isEqualTo(new ChangeToken(T3, "c"));
+    }
+
+    @Test
+    void continuesFromReturnedToken() {
+        ChangeToken since = new ChangeToken(T3, "c");
+        when(repo.changedAfter(USER, T3, "c", 4)).thenReturn(List.of(view("d", T3)));
+        when(repo.deletedAfter(USER, T3, "c", 4)).thenReturn(List.of());
+
+        TodoChanges page = feed.changes(USER, since.encode(), 3);
+
+        assertThat(page.changed().stream().map(TodoView::id).toList()).containsExactly("d");
+        assertThat(page.deleted()).isEmpty();
+        assertThat(page.hasMore()).isFalse();
+    }
+
+    @Test
+    void lastPageMovesWatermarkToSettleWindow() {
+        ChangeToken since = new ChangeToken(T1, "a");
+        when(repo.changedAfter(USER, T1, "a", 11)).thenReturn(List.of(view("b", T2)));
+        when(repo.deletedAfter(USER, T1, "a", 11)).thenReturn(List.of());
+
+        TodoChanges page = feed.changes(USER, since.encode(), 10);
+
+        assertThat(page.hasMore()).isFalse();
+        // 读完时水位线为 数据库当前时间 - settle-ms，而不是最后一条的时间
+        assertThat(ChangeToken.decode(page.next())).isEqualTo(new ChangeToken(NOW.minusMillis(5000), ""));
+    }
+
+    @Test
+    void fullSyncSkipsTombstonesAndPages() {
+        when(repo.changedAfter(USER, null, null, 3)).thenReturn(List.of(view("a", T1), view("b", T2), view("c", T3)));
+
+        TodoChanges page = feed.changes(USER, null, 2);
+
+        assertThat(page.changed().stream().map(TodoView::id).toList()).containsExactly("a", "b");
+        assertThat(page.deleted()).isEmpty();
+        assertThat(page.hasMore()).isTrue();
+        assertThat(ChangeToken.decode(page.next())).isEqualTo(new ChangeToken(T2, "b"));
+        verify(repo, never()).deletedAfter(anyString(), any(), anyString(), anyInt());
+    }
+
+    @Test
+    void tokenOlderThanRetentionRequiresFullResync() {
+        ChangeToken since = new ChangeToken(NOW.minus(Duration.ofDays(31)), "a");
+
+        assertThatThrownBy(() -> feed.changes(USER, since.encode(), 10))
+                .isInstanceOf(ChangeTokenExpiredException.class);
+        verify(repo, never()).changedAfter(anyString(), any(), anyString(), anyInt());
+    }
+
+    @Test
+    void malformedTokenIsRejected() {
+        assertThatThrownBy(() -> feed.changes(USER, "not-a-token", 10))
+                .isInstanceOf(InvalidCursorException.class);
+    }
+}
@@ -0,0 +1,39 @@
+package cn.bitsleep.tdl.service;
+
+import cn.bitsleep.tdl.domain.TodoStatus;
+import cn.bitsleep.tdl.dto.TodoView;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * 游标 / 令牌相关测试共用的数据构造。
+ */
+final class TodoFixtures {
+
+    static final Instant CREATED_AT = Instant.parse("2026-10-01T08:30:00.123456Z");
+
+    private TodoFixtures() {
+    }
+
+    /** 按与正式令牌相同的方式编码任意内容，用于构造格式错误的令牌 */
+    static String token(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static TodoView view(String id, BigDecimal priorityScore) {
+        return view(id, priorityScore, CREATED_AT);
+    }
+
+    /** 增量同步用：created_at 与 updated_at 均为 at */
+    static TodoView view(String id, Instant at) {
+        return view(id, BigDecimal.ONE, at);
+    }
+
+    private static TodoView view(String id, BigDecimal priorityScore, Instant at) {
+        return new TodoView(id, "title " + id, null, priorityScore, null, null, null,
+                TodoStatus.ACTIVE.code, TodoStatus.ACTIVE, null, at, at, 1L);
+    }
+}
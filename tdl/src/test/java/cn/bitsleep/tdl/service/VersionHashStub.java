@@ -0,0 +1,45 @@
+package cn.bitsleep.tdl.service;
+
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.Codec;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 模拟 ChangeVersions 的版本哈希脚本（单个用户的 epoch / n / s）：
+ * epoch 缺失时取调用方给出的随机值，flush() 相当于 Redis 被清空。
+ */
+final class VersionHashStub {
+
+    String epoch;
+    long main;
+    long search;
+    boolean failBumps;
+
+    VersionHashStub(RedissonClient redisson) {
+        RScript script = mock(RScript.class);
+        when(redisson.getScript(any(Codec.class))).thenReturn(script);
+        when(script.eval(any(RScript.Mode.class), anyString(), any(RScript.ReturnType.class), anyList(), any(Object[].class)))
+                .thenAnswer(inv -> {
+                    String counter = inv.getArgument(5);
+                    if (!counter.isEmpty() && failBumps) throw new IllegalStateException("redis down");
+                    if (epoch == null) epoch = inv.getArgument(4);
+                    if (counter.equals("n")) main++;
+                    if (counter.equals("s")) search++;
+                    return List.of(epoch, String.valueOf(main), String.valueOf(search));
+                });
+    }
+
+    void flush() {
+        epoch = null;
+        main = 0;
+        search = 0;
+    }
+}
@@ -0,0 +1,147 @@
+package cn.bitsleep.tdl.web;
+
+import cn.bitsleep.tdl.service.ChangeVersions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ConditionalGetTest {
+
+    private ChangeVersions changeVersions;
+    private ConditionalGet conditionalGet;
+
+    @BeforeEach
+    void setUp() {
+        changeVersions = mock(ChangeVersions.class);
+        conditionalGet = new ConditionalGet(changeVersions);
+        ReflectionTestUtils.setField(conditionalGet, "enabled", true);
+    }
+
+    @Test
+    void matchingEtagReturns304() {
+        when(changeVersions.fresh("u1")).thenReturn("e1.7");
+        String etag = firstResponseEtag("u1", "list");
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        boolean notModified = conditionalGet.notModified(request(etag, response), "u1", "list");
+
+        assertThat(notModified).isTrue();
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(conditionalGet.stats()).containsEntry("notModified", 1L);
+    }
+
+    @Test
+    void firstRequestGetsEtagAndRevalidationHeaders() {
+        when(changeVersions.fresh("u1")).thenReturn("e1.7");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        boolean notModified = conditionalGet.notModified(request(null, response), "u1", "list");
+
+        assertThat(notModified).isFalse();
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isNotNull();
+        assertThat(response.getHeader(HttpHeaders.CACHE_CONTROL)).isEqualTo("private, no-cache");
+        assertThat(response.getHeader(HttpHeaders.VARY)).isEqualTo("Authorization, X-User-ID");
+    }
+
+    @Test
+    void bumpedVersionInvalidatesEtag() {
+        when(changeVersions.fresh("u1")).thenReturn("e1.7");
+        String etag = firstResponseEtag("u1", "list");
+        when(changeVersions.fresh("u1")).thenReturn("e1.8");
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        boolean notModified = conditionalGet.notModified(request(etag, response), "u1", "list");
+
+        assertThat(notModified).isFalse();
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isNotEqualTo(etag);
+    }
+
+    @Test
+    void newEpochInvalidatesEtagWithSameCounter() {
+        when(changeVersions.fresh("u1")).thenReturn("e1.7");
+        String etag = firstResponseEtag("u1", "list");
+        // Redis 被清空后计数重新累加到相同值，epoch 已不同
+        when(changeVersions.fresh("u1")).thenReturn("e2.7");
+
+        assertThat(conditionalGet.notModified(request(etag, new MockHttpServletResponse()), "u1", "list")).isFalse();
+    }
+
+    @Test
+    void searchEtagFollowsSearchVersion() {
+        when(changeVersions.freshSearch("u1")).thenReturn("e1.7.0");
+        MockHttpServletResponse first = new MockHttpServletResponse();
+        conditionalGet.searchNotModified(request(null, first), "u1");
+        String etag = first.getHeader(HttpHeaders.ETAG);
+
+        assertThat(conditionalGet.searchNotModified(request(etag, new MockHttpServletResponse()), "u1")).isTrue();
+        when(changeVersions.freshSearch("u1")).thenReturn("e1.7.1");
+        assertThat(conditionalGet.searchNotModified(request(etag, new MockHttpServletResponse()), "u1")).isFalse();
+        verify(changeVersions, never()).fresh(anyString());
+    }
+
+    @Test
+    void etagIsScopedToUserAndEndpoint() {
+        when(changeVersions.fresh(anyString())).thenReturn("e1.7");
+        String etag = firstResponseEtag("u1", "list");
+
+        assertThat(conditionalGet.notModified(request(etag, new MockHttpServletResponse()), "u2", "list")).isFalse();
+        assertThat(conditionalGet.notModified(request(etag, new MockHttpServletResponse()), "u1", "facets")).isFalse();
+    }
+
+    @Test
+    void pendingBumpSkipsValidation() {
+        when(changeVersions.isPending("u1")).thenReturn(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        boolean notModified = conditionalGet.notModified(request("\"list-x-e1.7\"", response), "u1", "list");
+
+        assertThat(notModified).isFalse();
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isNull();
+        verify(changeVersions, never()).fresh(anyString());
+        assertThat(conditionalGet.stats()).containsEntry("bypassed", 1L);
+    }
+
+    @Test
+    void unavailableVersionServesWithoutEtag() {
+        when(changeVersions.fresh("u1")).thenThrow(new IllegalStateException("redis down"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        boolean notModified = conditionalGet.notModified(request(null, response), "u1", "list");
+
+        assertThat(notModified).isFalse();
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isNull();
+    }
+
+    @Test
+    void disabledNeverValidates() {
+        ReflectionTestUtils.setField(conditionalGet, "enabled", false);
+
+        assertThat(conditionalGet.notModified(request("\"list-x-e1.7\"", new MockHttpServletResponse()), "u1", "list")).isFalse();
+        verify(changeVersions, never()).fresh(anyString());
+    }
+
+    private String firstResponseEtag(String userId, String scope) {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        conditionalGet.notModified(request(null, response), userId, scope);
+        return response.getHeader(HttpHeaders.ETAG);
+    }
+
+    private static ServletWebRequest request(String ifNoneMatch, MockHttpServletResponse response) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/todos");
+        if (ifNoneMatch != null) request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        return new ServletWebRequest(request, response);
+    }
+}
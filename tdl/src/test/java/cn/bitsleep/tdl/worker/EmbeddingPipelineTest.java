@@ -0,0 +1,130 @@
+package cn.bitsleep.tdl.worker;
+
+import cn.bitsleep.tdl.config.EmbeddingVersion;
+import cn.bitsleep.tdl.domain.TodoItem;
+import cn.bitsleep.tdl.domain.TodoStatus;
+import cn.bitsleep.tdl.repo.TodoItemRepository;
+import cn.bitsleep.tdl.repo.TodoVectorRepository;
+import cn.bitsleep.tdl.repo.TodoVectorRepository.EmbeddingUpdate;
+import cn.bitsleep.tdl.service.ChangeVersions;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EmbeddingPipelineTest {
+
+    private static final String MODEL_VERSION = "all-minilm-l6-v2@t1";
+
+    private TodoItemRepository repo;
+    private TodoVectorRepository vectorRepo;
+    private ChangeVersions changeVersions;
+    private EmbeddingModel embeddingModel;
+    private EmbeddingPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        repo = mock(TodoItemRepository.class);
+        vectorRepo = mock(TodoVectorRepository.class);
+        changeVersions = mock(ChangeVersions.class);
+        EmbeddingVersion embeddingVersion = mock(EmbeddingVersion.class);
+        when(embeddingVersion.current()).thenReturn(MODEL_VERSION);
+        embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embedAll(anyList())).thenAnswer(inv -> {
+            List<TextSegment> segments = inv.getArgument(0);
+            return Response.from(segments.stream().map(s -> Embedding.from(new float[]{1f, 0f})).toList());
+        });
+        when(vectorRepo.updateEmbeddings(anyList(), anyString())).thenAnswer(inv -> ((List<?>) inv.getArgument(0)).size());
+        pipeline = new EmbeddingPipeline(repo, vectorRepo, embeddingModel, embeddingVersion, changeVersions);
+    }
+
+    @Test
+    void embedsOnlyRowsWhoseContentChanged() {
+        // findNeedingEmbedding 只返回 embedding_hash 与当前文本不一致的行：b 的内容未变
+        when(repo.findNeedingEmbedding(any(String[].class), eq(MODEL_VERSION))).thenReturn(List.of(item("a", "u1", "text a")));
+
+        int updated = pipeline.process(List.of("u1:a", "u1:b", "u1:a"));
+
+        assertThat(updated).isEqualTo(1);
+        ArgumentCaptor<String[]> requested = ArgumentCaptor.forClass(String[].class);
+        verify(repo).findNeedingEmbedding(requested.capture(), eq(MODEL_VERSION));
+        assertThat(requested.getValue()).containsExactly("a", "b");
+        assertThat(embeddedTexts()).containsExactly("text a");
+        List<EmbeddingUpdate> updates = writtenUpdates();
+        assertThat(updates).hasSize(1);
+        assertThat(updates.get(0).id()).isEqualTo("a");
+        assertThat(updates.get(0).userId()).isEqualTo("u1");
+        assertThat(updates.get(0).text()).isEqualTo("text a");
+        assertThat(updates.get(0).vector()).containsExactly(1f, 0f);
+        // 向量变化只使该用户的搜索 ETag 失效
+        verify(changeVersions).bumpSearch("u1");
+        verify(changeVersions, never()).bump(anyString());
+        assertThat(pipeline.stats()).containsEntry("jobs", 3L);
+        assertThat(pipeline.stats()).containsEntry("embedded", 1L);
+        assertThat(pipeline.stats()).containsEntry("skippedUnchanged", 1L);
+    }
+
+    @Test
+    void unchangedBatchSkipsInference() {
+        when(repo.findNeedingEmbedding(any(String[].class), eq(MODEL_VERSION))).thenReturn(List.of());
+
+        int updated = pipeline.process(List.of("u1:a", "u1:b"));
+
+        assertThat(updated).isZero();
+        verify(embeddingModel, never()).embedAll(anyList());
+        verify(vectorRepo, never()).updateEmbeddings(anyList(), anyString());
+        verify(changeVersions, never()).bumpSearch(anyString());
+        assertThat(pipeline.stats()).containsEntry("batches", 1L);
+        assertThat(pipeline.stats()).containsEntry("skippedUnchanged", 2L);
+    }
+
+    @Test
+    void skipsRowsOfAnotherUserAndBlankText() {
+        when(repo.findNeedingEmbedding(any(String[].class), eq(MODEL_VERSION)))
+                .thenReturn(List.of(item("a", "u2", "text a"), item("b", "u1", " "), item("c", "u1", "text c")));
+
+        int updated = pipeline.process(List.of("u1:a", "u1:b", "u1:c"));
+
+        assertThat(updated).isEqualTo(1);
+        assertThat(embeddedTexts()).containsExactly("text c");
+    }
+
+    private List<String> embeddedTexts() {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<TextSegment>> segments = ArgumentCaptor.forClass(List.class);
+        verify(embeddingModel).embedAll(segments.capture());
+        return segments.getValue().stream().map(TextSegment::text).toList();
+    }
+
+    private List<EmbeddingUpdate> writtenUpdates() {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<EmbeddingUpdate>> updates = ArgumentCaptor.forClass(List.class);
+        verify(vectorRepo).updateEmbeddings(updates.capture(), eq(MODEL_VERSION));
+        return updates.getValue();
+    }
+
+    private static TodoItem item(String id, String userId, String text) {
+        return TodoItem.builder()
+                .id(id)
+                .userId(userId)
+                .title("title " + id)
+                .statusCode(TodoStatus.ACTIVE.code)
+                .embeddingText(text)
+                .build();
+    }
+}
@@ -0,0 +1,108 @@
+package cn.bitsleep.tdl.worker;
+
+import cn.bitsleep.tdl.repo.TodoVectorRepository;
+import cn.bitsleep.tdl.repo.TodoVectorRepository.VectorMatch;
+import cn.bitsleep.tdl.repo.VectorStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class VectorIndexManagerTest {
+
+    // 精确结果 a..e（k = 5）
+    private static final List<VectorMatch> EXACT = matches("a", "b", "c", "d", "e");
+
+    private TodoVectorRepository vectorRepo;
+    private VectorIndexManager manager;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        JdbcTemplate jdbc = mock(JdbcTemplate.class);
+        vectorRepo = mock(TodoVectorRepository.class);
+        when(jdbc.query(anyString(), any(RowMapper.class), any(Object[].class)))
+                .thenAnswer(inv -> List.of(((RowMapper<?>) inv.getArgument(1)).mapRow(sampleRow(), 0)));
+        when(vectorRepo.searchExact(anyString(), any(), anyInt())).thenReturn(EXACT);
+        when(vectorRepo.searchNearest(anyString(), any(), anyInt())).thenReturn(EXACT);
+        when(vectorRepo.searchBruteForce(eq(VectorStorage.HALFVEC), anyString(), any(), anyInt())).thenReturn(EXACT);
+        // binary 只找回 3 / 5
+        when(vectorRepo.searchBruteForce(eq(VectorStorage.BINARY), anyString(), any(), anyInt()))
+                .thenReturn(matches("a", "b", "c", "x", "y"));
+        when(vectorRepo.rerankFactor()).thenReturn(4);
+        manager = new VectorIndexManager(jdbc, vectorRepo);
+        ReflectionTestUtils.setField(manager, "minRecall", 0.9);
+        ReflectionTestUtils.setField(manager, "dimension", 8);
+    }
+
+    @Test
+    void modeBelowFloorIsListedButConfiguredFullPasses() {
+        when(vectorRepo.storage()).thenReturn(VectorStorage.FULL);
+
+        Map<String, Object> report = manager.recallReport(1, 5);
+
+        assertThat(report).containsEntry("pass", true);
+        assertThat(report).containsEntry("failing", List.of("binary"));
+        assertThat(storage(report, "binary")).containsEntry("meetsMinRecall", false).containsEntry("recall", 0.6);
+        assertThat(storage(report, "halfvec")).containsEntry("meetsMinRecall", true);
+    }
+
+    @Test
+    void configuredStorageBelowFloorFails() {
+        when(vectorRepo.storage()).thenReturn(VectorStorage.BINARY);
+
+        Map<String, Object> report = manager.recallReport(1, 5);
+
+        assertThat(report).containsEntry("pass", false);
+        assertThat(report).containsEntry("storage", "binary");
+    }
+
+    @Test
+    void annBelowFloorFails() {
+        when(vectorRepo.storage()).thenReturn(VectorStorage.FULL);
+        when(vectorRepo.searchNearest(anyString(), any(), anyInt())).thenReturn(matches("a", "b", "c", "d", "z"));
+
+        Map<String, Object> report = manager.recallReport(1, 5);
+
+        assertThat(report).containsEntry("recallMean", 0.8);
+        assertThat(report).containsEntry("pass", false);
+        assertThat(report).containsEntry("failing", List.of("ann", "binary"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> storage(Map<String, Object> report, String mode) {
+        return (Map<String, Object>) ((Map<String, Object>) report.get("storageComparison")).get(mode);
+    }
+
+    // 一条采样行：user_id + real[] 向量
+    private static ResultSet sampleRow() throws SQLException {
+        Float[] vector = new Float[8];
+        Arrays.fill(vector, 0f);
+        Array array = mock(Array.class);
+        when(array.getArray()).thenReturn(vector);
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getString("user_id")).thenReturn("u1");
+        when(rs.getArray("v")).thenReturn(array);
+        return rs;
+    }
+
+    private static List<VectorMatch> matches(String... ids) {
+        return Arrays.stream(ids).map(id -> new VectorMatch(id, 0.0)).toList();
+    }
+}